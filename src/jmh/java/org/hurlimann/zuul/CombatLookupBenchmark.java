@@ -0,0 +1,55 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of finding the fighters in crowded rooms. Half of the players in the room fight each other in pairs.
+ * Finding the opponent of a player should cost the same however crowded the room is, the list of fighters is a
+ * copy and grows with the room.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombatLookupBenchmark {
+	@Param({"2", "100", "1000", "10000"})
+	private int playersInRoom;
+
+	private Room room;
+	private Player[] players;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		World world = new World();
+		room = new Room("an arena");
+		world.addRoom(room);
+		players = new Player[playersInRoom];
+		for (int i = 0; i < playersInRoom; i++) {
+			players[i] = new Player(i, "player" + i, world, room, new DiscardingSession());
+			room.addPlayer(players[i]);
+		}
+		int fighters = Math.max(2, playersInRoom / 2);
+		for (int i = 0; i + 1 < fighters; i += 2) {
+			room.addCombat(new Combat(players[i], players[i + 1]));
+		}
+	}
+
+	@Benchmark
+	public List<Player> getPlayersInCombat() {
+		return room.getPlayersInCombat();
+	}
+
+	@Benchmark
+	public Optional<Player> getCombatingPlayer() {
+		Player player = players[next];
+		next = (next + 1) % players.length;
+		return room.getCombatingPlayer(player);
+	}
+}
@@ -0,0 +1,43 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of interpreting a line a player sent: splitting it into words and looking up the command word.
+ * None of it should allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+	@Param({"look", "go north", "say hello there, how are you?", "  pickup   1234  ", "dance"})
+	private String line;
+
+	private final Parser parser = new Parser();
+	private String firstWord;
+
+	@Setup
+	public void setUp() {
+		firstWord = line.trim().split("\\s+")[0];
+	}
+
+	@Benchmark
+	public Command getCommand() {
+		return parser.getCommand(line);
+	}
+
+	@Benchmark
+	public CommandWord getCommandWord() {
+		return CommandWords.getCommandWord(firstWord);
+	}
+
+	@Benchmark
+	public CommandWord getCommandWordOfRegion() {
+		return CommandWords.getCommandWord(line, 0, line.length());
+	}
+}
@@ -0,0 +1,33 @@
+package org.hurlimann.zuul;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A session for benchmarks, output sent to it goes nowhere.
+ */
+class DiscardingSession implements Session {
+	private Player player;
+
+	@Override
+	public Player getPlayer() {
+		return player;
+	}
+
+	@Override
+	public void setPlayer(Player player) {
+		this.player = player;
+	}
+
+	@Override
+	public void send(ByteBuffer message) {
+	}
+
+	@Override
+	public boolean isSlowConsumer(long now) {
+		return false;
+	}
+
+	@Override
+	public void closeLater() {
+	}
+}
@@ -0,0 +1,44 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a whole command from parsing the line to the encoded output: {@code look} in a room with a few items
+ * and more and more players, every one of them a line of output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookBenchmark {
+	@Param({"1", "10", "100", "1000"})
+	private int playersInRoom;
+
+	private Player player;
+
+	@Setup
+	public void setUp() {
+		World world = new World();
+		Room room = new Room("outside the main entrance of the university");
+		room.setMaxItemCount(5);
+		world.addRoom(room);
+		GameRandom random = new GameRandom(42);
+		for (int i = 0; i < 5; i++) {
+			room.addItem(RandomItemGenerator.generate(random));
+		}
+		for (int i = 0; i < playersInRoom; i++) {
+			Player other = new Player(i, "player" + i, world, room, new DiscardingSession());
+			room.addPlayer(other);
+		}
+		player = room.getPlayers().get(0);
+	}
+
+	@Benchmark
+	public boolean look() {
+		return player.handleInput("look");
+	}
+}
@@ -0,0 +1,51 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of encoding the output of a player, as {@code Player.print} does: a line into the
+ * scratch buffer of the player's {@link MessageEncoder} and out as one message.
+ *
+ * @see LookBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputEncodingBenchmark {
+	@Param({"ascii", "long", "non-ascii"})
+	private String text;
+
+	private final MessageEncoder encoder = new MessageEncoder();
+	private String line;
+
+	@Setup
+	public void setUp() {
+		switch (text) {
+			case "ascii":
+				line = "Congratulations on your brand new sword";
+				break;
+			case "long":
+				StringBuilder builder = new StringBuilder();
+				while (builder.length() < 2000) {
+					builder.append("You are in a long corridor, it goes on and on. ");
+				}
+				line = builder.toString();
+				break;
+			default:
+				line = "Grüezi! Hürlimann sagt: Ändere deinen Namen, bevor du gehst.";
+				break;
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer encodeLine() {
+		encoder.appendLine(line);
+		return encoder.drain();
+	}
+}
@@ -0,0 +1,43 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the effective stats of a player with a growing inventory. They are kept up to date as items are
+ * picked up, so reading them should cost the same however many items the player carries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerStatsBenchmark {
+	@Param({"0", "10", "100", "1000"})
+	private int items;
+
+	private Player player;
+
+	@Setup
+	public void setUp() {
+		World world = new World();
+		Room room = new Room("a room full of treasure");
+		world.addRoom(room);
+		GameRandom random = new GameRandom(42);
+		List<Item> inventory = new ArrayList<>();
+		for (int i = 0; i < items; i++) {
+			inventory.add(RandomItemGenerator.generate(random));
+		}
+		player = new Player(1, "player1", world, room, new DiscardingSession());
+		player.restore(100, 1, 1, 1, inventory);
+	}
+
+	@Benchmark
+	public int getEffectiveAttack() {
+		return player.getEffectiveAttack();
+	}
+}
@@ -0,0 +1,46 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of spawning items across world sizes.
+ * <p>
+ * {@code advanceFrame} is what the game loop runs every frame. It only spawns items while fewer than a handful
+ * lie around, so it mostly measures the upkeep of the active rooms. {@code spawnItems} rolls the dice for every
+ * room each call. Its cost should follow the number of items spawned, not the number of rooms. The world is
+ * generated afresh for every iteration, since the rooms fill up with items.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SpawnBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	private int rooms;
+
+	private World world;
+	private GameEngine engine;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		world = new World(new WorldGenerator(WorldLayout.GRID, rooms, 42).generate());
+		world.getRandom().setSeed(42);
+		engine = new GameEngine(world);
+	}
+
+	@Benchmark
+	public long advanceFrame() {
+		engine.advanceFrame();
+		return engine.getFrame();
+	}
+
+	@Benchmark
+	public int spawnItems() {
+		world.spawnItems();
+		return world.getItemCount();
+	}
+}
@@ -0,0 +1,56 @@
+package org.hurlimann.zuul;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a tick and of scheduling and cancelling a timer, with more and more timers pending.
+ * <p>
+ * The pending timers are spread over as many ticks as there are timers and reschedule themselves when they fire,
+ * so about one timer fires per tick however many are pending. The cost per tick should stay flat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TimerWheelBenchmark {
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final Runnable NOTHING = () -> {
+	};
+
+	@Param({"1000", "100000", "1000000", "4000000"})
+	private int pendingTimers;
+
+	private final SplittableRandom random = new SplittableRandom(42);
+	private long now = 0;
+	private TimerWheel wheel;
+	private Runnable reschedule;
+
+	@Setup
+	public void setUp() {
+		wheel = new TimerWheel(TICK_NANOS, () -> now);
+		reschedule = () -> wheel.schedule(reschedule, randomDelay(), TimeUnit.NANOSECONDS);
+		for (int i = 0; i < pendingTimers; i++) {
+			reschedule.run();
+		}
+	}
+
+	private long randomDelay() {
+		return (1 + random.nextInt(pendingTimers)) * TICK_NANOS;
+	}
+
+	@Benchmark
+	public int tick() {
+		now += TICK_NANOS;
+		return wheel.advance();
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel() {
+		return wheel.schedule(NOTHING, randomDelay(), TimeUnit.NANOSECONDS).cancel();
+	}
+}
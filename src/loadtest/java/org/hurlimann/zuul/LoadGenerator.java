@@ -0,0 +1,565 @@
+package org.hurlimann.zuul;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts a running server under load: opens lots of connections on the same machine and sends commands at a fixed
+ * rate, then reports the latency of every kind of command as percentiles, the time it took to connect and the
+ * throughput.
+ * <pre>
+ * java -jar target/loadtest.jar -connections 2000 -rate 10000 -duration 60
+ * </pre>
+ * The commands are drawn at random with the weights of {@code -mix}, or taken from a {@code -script} in turn, one
+ * line per command. Random {@code go} commands pick a direction, {@code say} says hello, {@code attack} picks one of
+ * the other connections, which name themselves {@code lt0}, {@code lt1} and so on, and {@code pickup} guesses an
+ * item id.
+ * <p>
+ * The game doesn't tell when it is done with a command, so every command is followed by {@code quit ping}, which
+ * quits nothing. Lines are handled in order, the answer to that line ends the output of the command. The latency of a
+ * command is the time from when it was due to when that answer arrived. A command that is due while the previous
+ * one is still waiting for its answer is sent late, but its latency still counts from when it was due, so a server
+ * that falls behind can't hide it.
+ * <p>
+ * Connections that the server closes, because their player died or the server is full, connect again.
+ */
+public class LoadGenerator {
+	private static final String USAGE = "Usage: LoadGenerator [-host <host>] [-port <port>] [-connections <n>]"
+			+ " [-connectRate <per second>] [-rate <commands per second, 0 for as fast as possible>]"
+			+ " [-duration <seconds>] [-warmup <seconds>] [-threads <n>] [-mix <command=weight,...>]"
+			+ " [-script <file>] [-seed <seed>]";
+
+	private static final String DEFAULT_MIX = "go=30,look=25,say=15,attack=10,pickup=20";
+
+	/**
+	 * The line sent after every command, a quit that doesn't quit. Its answer is one nothing else gets.
+	 */
+	private static final byte[] MARKER = "quit ping\n".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * What the game answers to the marker, without the line terminator
+	 */
+	private static final byte[] MARKER_ANSWER = markerAnswer();
+
+	private final InetSocketAddress address;
+	private final int connections;
+	private final long connectIntervalNanos;
+	private final long commandIntervalNanos;
+	private final String[] mixCommands;
+	private final int[] mixWeights;
+	private final List<String> script;
+	private final long seed;
+	private long warmupEnd;
+	private long end;
+
+	private LoadGenerator(InetSocketAddress address, int connections, int connectRate, int rate,
+						  Map<String, Integer> mix, List<String> script, long seed) {
+		this.address = address;
+		this.connections = connections;
+		this.connectIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, connectRate);
+		// every connection sends a command every interval, together they send the rate
+		this.commandIntervalNanos = rate <= 0 ? 0 : TimeUnit.SECONDS.toNanos(connections) / rate;
+		this.mixCommands = mix.keySet().toArray(new String[0]);
+		this.mixWeights = new int[mixCommands.length];
+		int total = 0;
+		for (int i = 0; i < mixCommands.length; i++) {
+			total += mix.get(mixCommands[i]);
+			mixWeights[i] = total;
+		}
+		this.script = script;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = null;
+		int port = 7331;
+		int connections = 1000;
+		int connectRate = 1000;
+		int rate = 5000;
+		int duration = 30;
+		int warmup = 5;
+		int threads = 2;
+		String mix = DEFAULT_MIX;
+		String scriptFile = null;
+		long seed = 42;
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 == args.length) {
+				usage();
+			}
+			String value = args[++i];
+			switch (args[i - 1]) {
+				case "-host":
+					host = value;
+					break;
+				case "-port":
+					port = Integer.parseInt(value);
+					break;
+				case "-connections":
+					connections = Integer.parseInt(value);
+					break;
+				case "-connectRate":
+					connectRate = Integer.parseInt(value);
+					break;
+				case "-rate":
+					rate = Integer.parseInt(value);
+					break;
+				case "-duration":
+					duration = Integer.parseInt(value);
+					break;
+				case "-warmup":
+					warmup = Integer.parseInt(value);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "-mix":
+					mix = value;
+					break;
+				case "-script":
+					scriptFile = value;
+					break;
+				case "-seed":
+					seed = Long.parseLong(value);
+					break;
+				default:
+					usage();
+			}
+		}
+		if (connections <= 0 || threads <= 0 || duration <= 0) {
+			usage();
+		}
+
+		// the server listens on the address of the local host name, see Game#play()
+		InetAddress inetAddress = host == null ? InetAddress.getLocalHost() : InetAddress.getByName(host);
+		List<String> script = null;
+		if (scriptFile != null) {
+			script = new ArrayList<>();
+			for (String line : Files.readAllLines(Paths.get(scriptFile), StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) {
+					script.add(line);
+				}
+			}
+			if (script.isEmpty()) {
+				throw new IllegalArgumentException(scriptFile + " has no commands");
+			}
+		}
+		LoadGenerator generator = new LoadGenerator(new InetSocketAddress(inetAddress, port), connections,
+				connectRate, rate, parseMix(mix), script, seed);
+		generator.run(Math.min(threads, connections), warmup, duration, rate);
+	}
+
+	private static void usage() {
+		System.err.println(USAGE);
+		System.exit(2);
+	}
+
+	/**
+	 * @param mix like {@code go=30,look=25}
+	 * @return the weight of each command, in the order given
+	 */
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		for (String entry : mix.split(",")) {
+			String[] parts = entry.trim().split("=");
+			if (parts.length != 2 || parts[0].isEmpty() || Integer.parseInt(parts[1]) <= 0) {
+				throw new IllegalArgumentException("Not a command=weight pair: " + entry);
+			}
+			weights.put(parts[0], Integer.parseInt(parts[1]));
+		}
+		return weights;
+	}
+
+	private static byte[] markerAnswer() {
+		ByteBuffer answer = Messages.QUIT_WHAT.duplicate();
+		byte[] bytes = new byte[answer.remaining() - 1];
+		answer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Puts the server under load and prints the report.
+	 */
+	private void run(int threads, int warmupSeconds, int durationSeconds, int rate) throws InterruptedException {
+		long start = System.nanoTime();
+		warmupEnd = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+		Worker[] workers = new Worker[threads];
+		Thread[] workerThreads = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(i, threads, start);
+			workerThreads[i] = new Thread(workers[i], "loadgen-" + i);
+			workerThreads[i].start();
+		}
+		for (Thread thread : workerThreads) {
+			thread.join();
+		}
+
+		Histogram connectTimes = new Histogram(3);
+		Map<String, Histogram> latencies = new LinkedHashMap<>();
+		Histogram all = new Histogram(3);
+		long bytesReceived = 0;
+		int connected = 0;
+		long disconnects = 0;
+		long failedConnects = 0;
+		for (Worker worker : workers) {
+			connectTimes.add(worker.connectTimes);
+			for (Map.Entry<String, Histogram> entry : worker.latencies.entrySet()) {
+				latencies.computeIfAbsent(entry.getKey(), command -> new Histogram(3)).add(entry.getValue());
+				all.add(entry.getValue());
+			}
+			bytesReceived += worker.bytesReceived;
+			connected += worker.connected;
+			disconnects += worker.disconnects;
+			failedConnects += worker.failedConnects;
+		}
+
+		System.out.printf(Locale.ROOT, "%d of %d connections open at the end, %d closed by the server,"
+				+ " %d connects failed%n", connected, connections, disconnects, failedConnects);
+		System.out.printf(Locale.ROOT, "%-10s %10s %9s %9s %9s %9s %9s  (ms)%n", "", "count", "p50", "p90", "p99",
+				"p99.9", "max");
+		printPercentiles("(connect)", connectTimes);
+		for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+			printPercentiles(entry.getKey(), entry.getValue());
+		}
+		printPercentiles("(all)", all);
+		System.out.printf(Locale.ROOT, "%.0f commands/s (target %s), %.0f KB/s received, over %d s after %d s"
+						+ " of warmup%n", all.getTotalCount() / (double) durationSeconds,
+				rate <= 0 ? "as fast as possible" : String.valueOf(rate),
+				bytesReceived / 1024.0 / durationSeconds, durationSeconds, warmupSeconds);
+	}
+
+	private static void printPercentiles(String name, Histogram histogram) {
+		if (histogram.getTotalCount() == 0) {
+			return;
+		}
+		System.out.printf(Locale.ROOT, "%-10s %10d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+				histogram.getTotalCount(), millis(histogram.getValueAtPercentile(50)),
+				millis(histogram.getValueAtPercentile(90)), millis(histogram.getValueAtPercentile(99)),
+				millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	/**
+	 * Drives a share of the connections with a selector of its own. Every connection is in the queue while it waits
+	 * for its next connect or command to be due, and out of it while it waits for the server.
+	 */
+	private final class Worker implements Runnable {
+		private final int first;
+		private final int step;
+		private final long start;
+		private final SplittableRandom random;
+		private final PriorityQueue<Client> due = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+		private final StringBuilder line = new StringBuilder();
+		// latencies and times in microseconds
+		private final Histogram connectTimes = new Histogram(3);
+		private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+		private Selector selector;
+		private long bytesReceived = 0;
+		private int connected = 0;
+		private long disconnects = 0;
+		private long failedConnects = 0;
+
+		/**
+		 * @param first index of the first connection of the worker
+		 * @param step  between the connections of the worker
+		 * @param start time of the run
+		 */
+		Worker(int first, int step, long start) {
+			this.first = first;
+			this.step = step;
+			this.start = start;
+			this.random = new SplittableRandom(seed + first);
+		}
+
+		@Override
+		public void run() {
+			try {
+				selector = Selector.open();
+				for (int i = first; i < connections; i += step) {
+					Client client = new Client(i);
+					// the connections of all workers connect in turn at the connect rate
+					client.due = start + i * connectIntervalNanos;
+					due.add(client);
+				}
+				loop();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				close();
+			}
+		}
+
+		private void loop() throws IOException {
+			long now;
+			while ((now = System.nanoTime()) < end) {
+				Client next = due.peek();
+				long wait = next == null ? end - now : next.due - now;
+				if (wait <= 0) {
+					selector.selectNow();
+				} else {
+					selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle((Client) key.attachment(), key);
+				}
+
+				now = System.nanoTime();
+				while ((next = due.peek()) != null && next.due <= now) {
+					due.poll();
+					if (next.channel == null) {
+						connect(next);
+					} else {
+						send(next, now);
+					}
+				}
+			}
+		}
+
+		private void connect(Client client) {
+			client.connectStart = System.nanoTime();
+			try {
+				client.channel = SocketChannel.open();
+				client.channel.configureBlocking(false);
+				client.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				boolean done = client.channel.connect(address);
+				client.key = client.channel.register(selector, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+						client);
+			} catch (IOException e) {
+				failedConnects++;
+				reconnectLater(client);
+			}
+		}
+
+		private void handle(Client client, SelectionKey key) {
+			try {
+				if (key.isConnectable()) {
+					client.channel.finishConnect();
+					key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+				if (key.isWritable()) {
+					client.channel.write(client.output);
+					if (!client.output.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+					}
+				}
+				if (key.isReadable()) {
+					read(client);
+				}
+			} catch (IOException e) {
+				if (client.welcomed) {
+					disconnects++;
+				} else {
+					failedConnects++;
+				}
+				reconnectLater(client);
+			}
+		}
+
+		private void read(Client client) throws IOException {
+			readBuffer.clear();
+			int read = client.channel.read(readBuffer);
+			if (read < 0) {
+				throw new IOException("Closed by the server");
+			}
+			long now = System.nanoTime();
+			if (now >= warmupEnd) {
+				bytesReceived += read;
+			}
+			if (!client.welcomed) {
+				client.welcomed = true;
+				connected++;
+				connectTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(now - client.connectStart));
+				// not measured, the name lets the others attack this connection
+				write(client, ("setname lt" + client.index + "\n").getBytes(StandardCharsets.US_ASCII));
+				client.due = now + (commandIntervalNanos == 0 ? 0 : random.nextLong(commandIntervalNanos));
+				due.add(client);
+			}
+			readBuffer.flip();
+			while (readBuffer.hasRemaining()) {
+				byte b = readBuffer.get();
+				if (b == '\n') {
+					if (client.matched == MARKER_ANSWER.length && client.command != null) {
+						completed(client, now);
+					}
+					client.matched = 0;
+				} else if (client.matched >= 0 && client.matched < MARKER_ANSWER.length
+						&& b == MARKER_ANSWER[client.matched]) {
+					client.matched++;
+				} else {
+					client.matched = -1;
+				}
+			}
+		}
+
+		/**
+		 * The answer to the marker after a command arrived, the command is done.
+		 */
+		private void completed(Client client, long now) {
+			if (client.due >= warmupEnd) {
+				latencies.computeIfAbsent(client.command, command -> new Histogram(3))
+						.recordValue(TimeUnit.NANOSECONDS.toMicros(now - client.due));
+			}
+			client.command = null;
+			client.due = commandIntervalNanos == 0 ? now : client.due + commandIntervalNanos;
+			due.add(client);
+		}
+
+		private void send(Client client, long now) {
+			String command = nextCommand(client);
+			int space = command.indexOf(' ');
+			client.command = space < 0 ? command : command.substring(0, space);
+			byte[] bytes = (command + "\n").getBytes(StandardCharsets.UTF_8);
+			byte[] message = new byte[bytes.length + MARKER.length];
+			System.arraycopy(bytes, 0, message, 0, bytes.length);
+			System.arraycopy(MARKER, 0, message, bytes.length, MARKER.length);
+			try {
+				write(client, message);
+			} catch (IOException e) {
+				disconnects++;
+				reconnectLater(client);
+			}
+		}
+
+		private void write(Client client, byte[] message) throws IOException {
+			if (client.output != null && client.output.hasRemaining()) {
+				ByteBuffer joined = ByteBuffer.allocate(client.output.remaining() + message.length);
+				joined.put(client.output).put(message).flip();
+				client.output = joined;
+			} else {
+				client.output = ByteBuffer.wrap(message);
+			}
+			client.channel.write(client.output);
+			if (client.output.hasRemaining()) {
+				client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		private String nextCommand(Client client) {
+			if (script != null) {
+				return script.get(client.scriptLine++ % script.size());
+			}
+			int value = random.nextInt(mixWeights[mixWeights.length - 1]);
+			int i = 0;
+			while (mixWeights[i] <= value) {
+				i++;
+			}
+			String command = mixCommands[i];
+			line.setLength(0);
+			line.append(command);
+			switch (command) {
+				case "go":
+					line.append(' ').append(Direction.VALUES[random.nextInt(Direction.VALUES.length)]);
+					break;
+				case "say":
+					line.append(" hello from lt").append(client.index);
+					break;
+				case "attack":
+					line.append(" lt").append(random.nextInt(connections));
+					break;
+				case "pickup":
+					line.append(' ').append(random.nextInt(1, 1000));
+					break;
+				default:
+					break;
+			}
+			return line.toString();
+		}
+
+		private void reconnectLater(Client client) {
+			if (client.welcomed) {
+				connected--;
+			}
+			closeChannel(client);
+			due.remove(client);
+			client.reset();
+			client.due = System.nanoTime() + connectIntervalNanos;
+			due.add(client);
+		}
+
+		private void closeChannel(Client client) {
+			if (client.channel != null) {
+				try {
+					client.channel.close();
+				} catch (IOException e) {
+					// nothing left to do with it
+				}
+			}
+		}
+
+		private void close() {
+			if (selector == null) {
+				return;
+			}
+			for (SelectionKey key : selector.keys()) {
+				closeChannel((Client) key.attachment());
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * One connection to the server.
+	 */
+	private static final class Client {
+		private final int index;
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer output;
+		private boolean welcomed;
+		private long connectStart;
+		// when the next connect or command is due, or was due for the command waiting for its answer
+		private long due;
+		// first word of the command waiting for its answer, null if there is none
+		private String command;
+		// bytes of the current line that match the answer to the marker, -1 if it doesn't
+		private int matched;
+		private int scriptLine;
+
+		Client(int index) {
+			this.index = index;
+			this.scriptLine = index;
+		}
+
+		void reset() {
+			channel = null;
+			key = null;
+			output = null;
+			welcomed = false;
+			command = null;
+			matched = 0;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.hurlimann.zuul;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which new connections become players. It limits the number of sessions, the sessions per remote
+ * address and how many connections are accepted per frame, so a flood of connections can't starve the game loop.
+ * Connections that are turned away are told why by a {@link Messages pre-encoded} message.
+ * <p>
+ * Thread-safe, in {@link ServerMode#VIRTUAL_THREADS} mode the acceptor thread asks it too.
+ */
+class AdmissionControl {
+	private final int maxSessions;
+	private final int maxSessionsPerAddress;
+	private final int maxAcceptsPerTick;
+	private final Map<InetAddress, Integer> sessionsPerAddress = new HashMap<>();
+	private int sessions = 0;
+	private int acceptsThisTick = 0;
+
+	/**
+	 * @param maxSessions           most sessions at once, 0 for no limit
+	 * @param maxSessionsPerAddress most sessions from the same remote address, 0 for no limit
+	 * @param maxAcceptsPerTick     most connections accepted per frame, 0 for no limit
+	 */
+	AdmissionControl(int maxSessions, int maxSessionsPerAddress, int maxAcceptsPerTick) {
+		this.maxSessions = maxSessions;
+		this.maxSessionsPerAddress = maxSessionsPerAddress;
+		this.maxAcceptsPerTick = maxAcceptsPerTick;
+	}
+
+	/**
+	 * @return true if another connection may be accepted this frame
+	 */
+	synchronized boolean mayAccept() {
+		return maxAcceptsPerTick <= 0 || acceptsThisTick < maxAcceptsPerTick;
+	}
+
+	/**
+	 * Counts a connection that was accepted, whether it is admitted or not.
+	 */
+	synchronized void accepted() {
+		acceptsThisTick++;
+	}
+
+	/**
+	 * Blocks until another connection may be accepted this frame, then counts it.
+	 *
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	synchronized void awaitAccept() throws InterruptedException {
+		while (!mayAccept()) {
+			wait();
+		}
+		acceptsThisTick++;
+	}
+
+	/**
+	 * Starts a new frame with a fresh budget of accepts.
+	 */
+	synchronized void newTick() {
+		acceptsThisTick = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Admits a connection unless a limit is reached. An admitted connection must be {@link #release(InetAddress)
+	 * released} once its session ends.
+	 *
+	 * @param address the connection comes from
+	 * @return null if the connection is admitted, else the read only message telling the client why it isn't
+	 */
+	synchronized ByteBuffer admit(InetAddress address) {
+		if (maxSessions > 0 && sessions >= maxSessions) {
+			return Messages.SERVER_FULL;
+		}
+		int fromAddress = sessionsPerAddress.getOrDefault(address, 0);
+		if (maxSessionsPerAddress > 0 && fromAddress >= maxSessionsPerAddress) {
+			return Messages.TOO_MANY_CONNECTIONS;
+		}
+		sessions++;
+		sessionsPerAddress.put(address, fromAddress + 1);
+		return null;
+	}
+
+	/**
+	 * Frees the place of a session that ended.
+	 *
+	 * @param address the session came from
+	 */
+	synchronized void release(InetAddress address) {
+		sessions--;
+		sessionsPerAddress.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * @return number of admitted sessions
+	 */
+	synchronized int getSessionCount() {
+		return sessions;
+	}
+}
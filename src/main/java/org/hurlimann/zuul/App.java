@@ -11,6 +11,7 @@ class App {
 	public static void main(String[] args) {
 		try {
 			Game myGame = new Game();
+			myGame.recover();
 			myGame.play();
 		} catch (Exception e) {
 			e.printStackTrace();
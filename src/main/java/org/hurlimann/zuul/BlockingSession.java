@@ -0,0 +1,249 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A session served by two threads of its own doing plain blocking I/O: one reads lines and hands them to the game,
+ * the other writes the queued output.
+ * <p>
+ * The reader waits while {@link Config#MAX_PENDING_LINES} of its lines wait for the game, a client sending faster
+ * than the game handles its lines fills up its own socket buffers, not the memory of the server.
+ * <p>
+ * Meant to run on virtual threads, which is why it uses a {@link ReentrantLock} rather than
+ * {@code synchronized}: blocking inside a monitor would pin the carrier thread.
+ */
+class BlockingSession implements Session, LineDecoder.Handler {
+	private final SocketChannel socketChannel;
+	private final Game game;
+	private final ThreadFactory threadFactory;
+	private final LineDecoder decoder = new LineDecoder(Config.MAX_LINE_LENGTH);
+	private volatile Player player;
+	// a permit for every line that may still be handed to the game
+	private final Semaphore pendingLines = new Semaphore(Config.MAX_PENDING_LINES);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition outputPending = lock.newCondition();
+	// guarded by lock
+	private final OutboundQueue outbound = new OutboundQueue();
+	private boolean closing = false;
+	private boolean draining = false;
+	private boolean closed = false;
+
+	/**
+	 * @param socketChannel blocking channel of the client
+	 * @param game          receiving the lines
+	 * @param threadFactory creating the reader and writer thread
+	 */
+	BlockingSession(SocketChannel socketChannel, Game game, ThreadFactory threadFactory) {
+		this.socketChannel = socketChannel;
+		this.game = game;
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Starts the reader and writer thread of the session.
+	 */
+	void start() {
+		threadFactory.newThread(this::readLoop).start();
+		threadFactory.newThread(this::writeLoop).start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Player getPlayer() {
+		return player;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setPlayer(Player player) {
+		this.player = player;
+	}
+
+	/**
+	 * Reads lines until the client hangs up or the session is closed.
+	 */
+	private void readLoop() {
+		ByteBuffer receiveBuffer = ByteBuffer.allocate(Config.RECEIVE_BUFFER_SIZE);
+		try {
+			while (socketChannel.read(receiveBuffer) >= 0) {
+				receiveBuffer.flip();
+				decoder.decode(receiveBuffer, this);
+				receiveBuffer.clear();
+			}
+		} catch (IOException e) {
+			// the client is gone
+		}
+		abort();
+	}
+
+	/**
+	 * Writes queued output until the session is closed.
+	 */
+	private void writeLoop() {
+		ByteBuffer[] batch = new ByteBuffer[Config.MAX_BUFFERS_PER_WRITE];
+		try {
+			while (true) {
+				int count;
+				lock.lock();
+				try {
+					while (outbound.isEmpty() && !closing && !draining && !closed) {
+						outputPending.await();
+					}
+					if (closing || closed || outbound.isEmpty()) {
+						break;
+					}
+					count = outbound.fillBatch(batch);
+				} finally {
+					lock.unlock();
+				}
+
+				// write without holding the lock so the game never waits for a slow client
+				long written = socketChannel.write(batch, 0, count);
+
+				lock.lock();
+				try {
+					if (closed) {
+						return;
+					}
+					outbound.written(written);
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (IOException | InterruptedException e) {
+			// the client is gone
+		}
+		abort();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean onLine(CharSequence line) throws IOException {
+		awaitTurn();
+		game.handleLine(this, line, pendingLines::release);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onLineTooLong() throws IOException {
+		awaitTurn();
+		game.handleLineTooLong(this, pendingLines::release);
+	}
+
+	/**
+	 * Waits until the game handled enough of the lines of this session to take another one.
+	 *
+	 * @throws IOException if the reader was interrupted while waiting
+	 */
+	private void awaitTurn() throws IOException {
+		try {
+			pendingLines.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the game", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The output is written by the session's writer thread. A client that can't keep up is disconnected right away
+	 * if the {@link Config#SLOW_CONSUMER_POLICY} says so, its writer is most likely blocked on the full socket.
+	 */
+	@Override
+	public void send(ByteBuffer message) {
+		lock.lock();
+		try {
+			if (closing || draining || closed) {
+				return;
+			}
+			if (!outbound.offer(message) && Config.SLOW_CONSUMER_POLICY == SlowConsumerPolicy.DISCONNECT) {
+				closing = true;
+			} else {
+				outputPending.signal();
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		close();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isSlowConsumer(long now) {
+		lock.lock();
+		try {
+			return closing || outbound.isStalled(now);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the session from the network side and lets the game know that the player is gone.
+	 */
+	private void abort() {
+		close();
+		game.connectionLost(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The writer thread closes the session as soon as the queue is empty. A slow consumer is closed right away
+	 * instead, its writer may be blocked on the full socket and would never get to see that it should stop.
+	 */
+	@Override
+	public void closeLater() {
+		lock.lock();
+		try {
+			if (!closing && !outbound.isStalled(System.nanoTime())) {
+				draining = true;
+				outputPending.signal();
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		close();
+	}
+
+	/**
+	 * Closes the channel, which also wakes up a reader or writer blocked on it.
+	 */
+	private void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			outbound.clear();
+			outputPending.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			socketChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
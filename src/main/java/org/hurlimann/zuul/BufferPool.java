@@ -0,0 +1,45 @@
+package org.hurlimann.zuul;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of equally sized direct buffers.
+ * Direct buffers are expensive to allocate and free, so connections borrow them from here and hand them back
+ * when they are closed.
+ */
+class BufferPool {
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+
+	/**
+	 * @param bufferSize size of every buffer in bytes
+	 * @param maxPooled  maximum number of idle buffers kept for reuse
+	 */
+	BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return a cleared buffer, either a pooled one or a freshly allocated one
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.pollFirst();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Hands a buffer back to the pool. The buffer must not be used by the caller afterwards.
+	 *
+	 * @param buffer that was acquired from this pool
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffers.size() < maxPooled) {
+			buffer.clear();
+			buffers.offerFirst(buffer);
+		}
+	}
+}
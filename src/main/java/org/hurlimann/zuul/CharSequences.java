@@ -0,0 +1,71 @@
+package org.hurlimann.zuul;
+
+/**
+ * Helpers to work on regions of character sequences without copying them into Strings.
+ */
+final class CharSequences {
+	private CharSequences() {
+	}
+
+	/**
+	 * @param sequence to look at
+	 * @param start    of the region, inclusive
+	 * @param end      of the region, exclusive
+	 * @param string   to compare the region with
+	 * @return true if the region contains exactly the characters of the string
+	 */
+	static boolean regionEquals(CharSequence sequence, int start, int end, String string) {
+		if (end - start != string.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (sequence.charAt(i) != string.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the first non whitespace character at or after start, or end if there is none
+	 */
+	static int skipWhitespace(CharSequence sequence, int start, int end) {
+		int i = start;
+		while (i < end && Character.isWhitespace(sequence.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the index of the first whitespace character at or after start, or end if there is none
+	 */
+	static int skipWord(CharSequence sequence, int start, int end) {
+		int i = start;
+		while (i < end && !Character.isWhitespace(sequence.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the index after the last non whitespace character before end, or start if there is none
+	 */
+	static int trimEnd(CharSequence sequence, int start, int end) {
+		int i = end;
+		while (i > start && Character.isWhitespace(sequence.charAt(i - 1))) {
+			i--;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the region as a new String
+	 */
+	static String substring(CharSequence sequence, int start, int end) {
+		if (sequence instanceof String) {
+			return ((String) sequence).substring(start, end);
+		}
+		return new StringBuilder(end - start).append(sequence, start, end).toString();
+	}
+}
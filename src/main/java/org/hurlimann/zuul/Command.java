@@ -14,15 +14,26 @@ package org.hurlimann.zuul;
  * the CommandWord is UNKNOWN.
  * <p>
  * If the command had only one word, then the second word and the rest are <null>.
+ * <p>
+ * A command created by the {@link Parser} refers to the line it was parsed from
+ * and only creates the Strings of the second word and the rest when they are
+ * asked for.
  *
  * @author Michael Kölling and David J. Barnes
  * @version 2011.08.10
  */
 
 public class Command {
-	private final CommandWord commandWord;
-	private final String secondWord;
-	private final String rest;
+	private CommandWord commandWord;
+	private String secondWord;
+	private String rest;
+
+	// the line the command was parsed from and the regions of the second word and the rest in it
+	private CharSequence source;
+	private int secondStart = -1;
+	private int secondEnd = -1;
+	private int restStart = -1;
+	private int restEnd = -1;
 
 	/**
 	 * Create a command object. First and second words must be supplied, but the
@@ -39,6 +50,29 @@ public class Command {
 		this.rest = rest;
 	}
 
+	/**
+	 * Lets the command refer to a newly parsed line.
+	 *
+	 * @param commandWord The CommandWord. UNKNOWN if the command word was not
+	 *                    recognised.
+	 * @param source      the line
+	 * @param secondStart start of the second word, -1 if there is none
+	 * @param secondEnd   end of the second word, -1 if there is none
+	 * @param restStart   start of the rest, -1 if there is none
+	 * @param restEnd     end of the rest, -1 if there is none
+	 */
+	void reset(CommandWord commandWord, CharSequence source,
+			   int secondStart, int secondEnd, int restStart, int restEnd) {
+		this.commandWord = commandWord;
+		this.source = source;
+		this.secondStart = secondStart;
+		this.secondEnd = secondEnd;
+		this.restStart = restStart;
+		this.restEnd = restEnd;
+		this.secondWord = null;
+		this.rest = null;
+	}
+
 	/**
 	 * Return the command word (the first word) of this command.
 	 *
@@ -53,10 +87,20 @@ public class Command {
 	 * second word.
 	 */
 	public String getSecondWord() {
+		if (secondWord == null && secondStart >= 0) {
+			secondWord = CharSequences.substring(source, secondStart, secondEnd);
+		}
 		return secondWord;
 	}
 
+	/**
+	 * @return The rest of the line after the second word, without leading and
+	 * trailing whitespace. Returns null if there was no second word.
+	 */
 	public String getRest() {
+		if (rest == null && restStart >= 0) {
+			rest = CharSequences.substring(source, restStart, restEnd);
+		}
 		return rest;
 	}
 
@@ -71,6 +115,6 @@ public class Command {
 	 * @return true if the command has a second word.
 	 */
 	public boolean hasSecondWord() {
-		return (secondWord != null);
+		return (secondWord != null || secondStart >= 0);
 	}
 }
@@ -18,6 +18,7 @@ class CommandWords {
 	// A mapping between a command word and the CommandWord
 	// associated with it.
 	private static final Map<String, CommandWord> validCommands;
+	private static final CommandWord[] commandWords;
 
 	private CommandWords() {
 	}
@@ -29,6 +30,7 @@ class CommandWords {
 				validCommands.put(command.toString(), command);
 			}
 		}
+		commandWords = validCommands.values().toArray(new CommandWord[0]);
 	}
 
 	/**
@@ -47,6 +49,25 @@ class CommandWords {
 		}
 	}
 
+	/**
+	 * Find the CommandWord associated with a region of a line without copying
+	 * the region into a String.
+	 *
+	 * @param line  containing the word
+	 * @param start of the word, inclusive
+	 * @param end   of the word, exclusive
+	 * @return The CommandWord corresponding to the word, or UNKNOWN if it is
+	 * not a valid command word.
+	 */
+	public static CommandWord getCommandWord(CharSequence line, int start, int end) {
+		for (CommandWord command : commandWords) {
+			if (CharSequences.regionEquals(line, start, end, command.toString())) {
+				return command;
+			}
+		}
+		return CommandWord.UNKNOWN;
+	}
+
 	/**
 	 * Check whether a given String is a valid command word.
 	 *
@@ -0,0 +1,274 @@
+package org.hurlimann.zuul;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The map of a world kept in a few flat tables instead of a web of {@link Room} objects, so worlds with millions of
+ * rooms fit in tens of megabytes.
+ * <p>
+ * Rooms are addressed by an int id from 0 to {@link #getRoomCount()} - 1. The exits of all rooms live in one table
+ * with a slot for every room and {@link Direction}, holding the id of the neighbour or {@link #NO_EXIT}.
+ * Descriptions are interned, every room only stores the index of its description in a shared table. The same goes
+ * for the spawn settings of a room, its chance to spawn an item each frame and the most items it may hold.
+ * <p>
+ * A compact world is never changed once built. The rooms players actually visit are materialized by the
+ * {@link World} when they are first touched.
+ */
+class CompactWorld {
+	/**
+	 * Marks a missing exit in the exit table.
+	 */
+	static final int NO_EXIT = -1;
+
+	private static final int DIRECTIONS = Direction.VALUES.length;
+
+	private final int roomCount;
+	private final int startingRoom;
+	// DIRECTIONS slots per room, indexed by room id * DIRECTIONS + ordinal of the direction
+	private final IntBuffer exits;
+	private final IntBuffer descriptionIds;
+	private final String[] descriptions;
+	private final IntBuffer spawnIds;
+	// spawn settings indexed by spawn id
+	private final int[] spawnChances;
+	private final int[] maxItemCounts;
+
+	/**
+	 * @param roomCount      number of rooms
+	 * @param startingRoom   id of the room new players start in
+	 * @param exits          exit table, {@link Direction#VALUES} slots per room
+	 * @param descriptionIds index into descriptions for every room
+	 * @param descriptions   the distinct descriptions
+	 * @param spawnIds       index into the spawn settings for every room
+	 * @param spawnChances   item spawn chance per frame in tenths of a percent of every spawn setting
+	 * @param maxItemCounts  most items a room may hold of every spawn setting
+	 */
+	CompactWorld(int roomCount, int startingRoom, IntBuffer exits, IntBuffer descriptionIds, String[] descriptions,
+				 IntBuffer spawnIds, int[] spawnChances, int[] maxItemCounts) {
+		if (exits.limit() != roomCount * DIRECTIONS || descriptionIds.limit() != roomCount
+				|| spawnIds.limit() != roomCount || spawnChances.length != maxItemCounts.length) {
+			throw new IllegalArgumentException("Tables don't match the number of rooms: " + roomCount);
+		}
+		if (roomCount > 0 && (startingRoom < 0 || startingRoom >= roomCount)) {
+			throw new IllegalArgumentException("No such room: " + startingRoom);
+		}
+		this.roomCount = roomCount;
+		this.startingRoom = startingRoom;
+		this.exits = exits;
+		this.descriptionIds = descriptionIds;
+		this.descriptions = descriptions;
+		this.spawnIds = spawnIds;
+		this.spawnChances = spawnChances;
+		this.maxItemCounts = maxItemCounts;
+	}
+
+	/**
+	 * @return number of rooms
+	 */
+	int getRoomCount() {
+		return roomCount;
+	}
+
+	/**
+	 * @return id of the room new players start in
+	 */
+	int getStartingRoom() {
+		return startingRoom;
+	}
+
+	/**
+	 * @param roomId    of the room
+	 * @param direction of the exit
+	 * @return id of the room the exit leads to, or {@link #NO_EXIT}
+	 */
+	int getExit(int roomId, Direction direction) {
+		return exits.get(roomId * DIRECTIONS + direction.ordinal());
+	}
+
+	/**
+	 * @param roomId of the room
+	 * @return the short description of the room, the same instance for all rooms that are described alike
+	 */
+	String getDescription(int roomId) {
+		return descriptions[descriptionIds.get(roomId)];
+	}
+
+	/**
+	 * @param roomId of the room
+	 * @return chance in tenths of a percent that an item spawns in the room each frame
+	 */
+	int getSpawnChance(int roomId) {
+		return spawnChances[spawnIds.get(roomId)];
+	}
+
+	/**
+	 * @param roomId of the room
+	 * @return most items that may spawn in the room
+	 */
+	int getMaxItemCount(int roomId) {
+		return maxItemCounts[spawnIds.get(roomId)];
+	}
+
+	/**
+	 * @return read only view of the exit table
+	 */
+	IntBuffer getExits() {
+		return exits.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return read only view of the description index of every room
+	 */
+	IntBuffer getDescriptionIds() {
+		return descriptionIds.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the distinct descriptions
+	 */
+	String[] getDescriptions() {
+		return descriptions.clone();
+	}
+
+	/**
+	 * @return read only view of the spawn settings index of every room
+	 */
+	IntBuffer getSpawnIds() {
+		return spawnIds.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return spawn chance of every spawn setting
+	 */
+	int[] getSpawnChances() {
+		return spawnChances.clone();
+	}
+
+	/**
+	 * @return most items a room may hold of every spawn setting
+	 */
+	int[] getMaxItemCounts() {
+		return maxItemCounts.clone();
+	}
+
+	/**
+	 * Collects the rooms of a compact world. Descriptions and spawn settings are interned while they are added.
+	 */
+	static class Builder {
+		private final int roomCount;
+		private int startingRoom = 0;
+		private final int[] exits;
+		private final int[] descriptionIds;
+		private final List<String> descriptions = new ArrayList<>();
+		private final Map<String, Integer> descriptionIndex = new HashMap<>();
+		private final int[] spawnIds;
+		private final List<Long> spawnSettings = new ArrayList<>();
+		private final Map<Long, Integer> spawnIndex = new HashMap<>();
+
+		/**
+		 * @param roomCount number of rooms, all of them start without exits, with an empty description and the
+		 *                  default spawn settings of a {@link Room}
+		 */
+		Builder(int roomCount) {
+			this.roomCount = roomCount;
+			this.exits = new int[roomCount * DIRECTIONS];
+			this.descriptionIds = new int[roomCount];
+			this.spawnIds = new int[roomCount];
+			Arrays.fill(exits, NO_EXIT);
+			intern("");
+			internSpawn(Room.ITEM_SPAWN_CHANCE, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * @param roomId of the room new players start in, the first room by default
+		 * @return this builder
+		 */
+		Builder setStartingRoom(int roomId) {
+			if (roomId < 0 || roomId >= roomCount) {
+				throw new IllegalArgumentException("No such room: " + roomId);
+			}
+			startingRoom = roomId;
+			return this;
+		}
+
+		/**
+		 * @param roomId      of the room
+		 * @param description of the room, for example "in a lecture theater"
+		 * @return this builder
+		 */
+		Builder setDescription(int roomId, String description) {
+			descriptionIds[roomId] = intern(description);
+			return this;
+		}
+
+		/**
+		 * Defines a one way exit.
+		 *
+		 * @param roomId    of the room the exit starts in
+		 * @param direction of the exit
+		 * @param neighbour id of the room the exit leads to, or {@link #NO_EXIT} to remove it
+		 * @return this builder
+		 */
+		Builder setExit(int roomId, Direction direction, int neighbour) {
+			if (neighbour < NO_EXIT || neighbour >= roomCount) {
+				throw new IllegalArgumentException("No such room: " + neighbour);
+			}
+			exits[roomId * DIRECTIONS + direction.ordinal()] = neighbour;
+			return this;
+		}
+
+		/**
+		 * @param roomId       of the room
+		 * @param spawnChance  chance in tenths of a percent that an item spawns in the room each frame
+		 * @param maxItemCount most items that may spawn in the room
+		 * @return this builder
+		 */
+		Builder setSpawn(int roomId, int spawnChance, int maxItemCount) {
+			if (spawnChance < 0 || spawnChance > 1000 || maxItemCount < 0) {
+				throw new IllegalArgumentException("Invalid spawn settings: " + spawnChance + " " + maxItemCount);
+			}
+			spawnIds[roomId] = internSpawn(spawnChance, maxItemCount);
+			return this;
+		}
+
+		private int internSpawn(int spawnChance, int maxItemCount) {
+			Long key = ((long) spawnChance << 32) | maxItemCount;
+			Integer id = spawnIndex.get(key);
+			if (id == null) {
+				id = spawnSettings.size();
+				spawnSettings.add(key);
+				spawnIndex.put(key, id);
+			}
+			return id;
+		}
+
+		private int intern(String description) {
+			Integer id = descriptionIndex.get(description);
+			if (id == null) {
+				id = descriptions.size();
+				descriptions.add(description);
+				descriptionIndex.put(description, id);
+			}
+			return id;
+		}
+
+		/**
+		 * @return the compact world, the builder must not be used anymore
+		 */
+		CompactWorld build() {
+			int[] spawnChances = new int[spawnSettings.size()];
+			int[] maxItemCounts = new int[spawnSettings.size()];
+			for (int i = 0; i < spawnChances.length; i++) {
+				spawnChances[i] = (int) (spawnSettings.get(i) >>> 32);
+				maxItemCounts[i] = (int) (long) spawnSettings.get(i);
+			}
+			return new CompactWorld(roomCount, startingRoom, IntBuffer.wrap(exits), IntBuffer.wrap(descriptionIds),
+					descriptions.toArray(new String[0]), IntBuffer.wrap(spawnIds), spawnChances, maxItemCounts);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.hurlimann.zuul;
+
+/**
+ * Tunables of the server.
+ * Every value can be overridden with a system property, e.g. {@code -Dzuul.maxLineLength=4096}.
+ */
+final class Config {
+	private Config() {
+	}
+
+	/**
+	 * Longest line in bytes a player may send. Longer lines are discarded.
+	 */
+	static final int MAX_LINE_LENGTH = Integer.getInteger("zuul.maxLineLength", 1024);
+
+	/**
+	 * Size in bytes of the receive buffer every connection reads into.
+	 */
+	static final int RECEIVE_BUFFER_SIZE = Integer.getInteger("zuul.receiveBufferSize", 4096);
+
+	/**
+	 * How many idle receive buffers are kept around for reuse.
+	 */
+	static final int RECEIVE_BUFFER_POOL_SIZE = Integer.getInteger("zuul.receiveBufferPoolSize", 1024);
+
+	/**
+	 * Maximum number of bytes waiting in the outbound queue of a connection.
+	 */
+	static final int MAX_OUTBOUND_BYTES = Integer.getInteger("zuul.maxOutboundBytes", 256 * 1024);
+
+	/**
+	 * How many buffers are handed to a single gathering write.
+	 */
+	static final int MAX_BUFFERS_PER_WRITE = Integer.getInteger("zuul.maxBuffersPerWrite", 64);
+
+	/**
+	 * What happens when the outbound queue of a connection is full.
+	 */
+	static final SlowConsumerPolicy SLOW_CONSUMER_POLICY =
+			SlowConsumerPolicy.of(System.getProperty("zuul.slowConsumerPolicy", "disconnect"));
+
+	/**
+	 * Seconds a connection may have pending output without the client reading any of it before it is
+	 * disconnected. 0 disables the timeout.
+	 */
+	static final int SLOW_CONSUMER_TIMEOUT_SECONDS = Integer.getInteger("zuul.slowConsumerTimeoutSeconds", 30);
+
+	/**
+	 * Most lines of a connection waiting for the game loop. A connection that reaches the limit isn't read from
+	 * until the game caught up with it.
+	 */
+	static final int MAX_PENDING_LINES = Integer.getInteger("zuul.maxPendingLines", 16);
+
+	/**
+	 * Number of threads doing the network I/O of the players. 0 lets the game loop do it by itself.
+	 */
+	static final int WORKER_THREADS =
+			Integer.getInteger("zuul.workerThreads", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Most players connected at once, further connections are turned away. 0 for no limit.
+	 */
+	static final int MAX_SESSIONS = Integer.getInteger("zuul.maxSessions", 10000);
+
+	/**
+	 * Most players connected from the same address at once. 0 for no limit.
+	 */
+	static final int MAX_SESSIONS_PER_ADDRESS = Integer.getInteger("zuul.maxSessionsPerAddress", 0);
+
+	/**
+	 * Most connections accepted per frame, the rest wait in the backlog of the server socket. 0 for no limit.
+	 */
+	static final int MAX_ACCEPTS_PER_TICK = Integer.getInteger("zuul.maxAcceptsPerTick", 1000);
+
+	/**
+	 * Length of the queue of connections the operating system keeps until the server accepts them.
+	 */
+	static final int ACCEPT_BACKLOG = Integer.getInteger("zuul.acceptBacklog", 1024);
+
+	/**
+	 * Seconds a player may stay silent before being disconnected. 0 disables the timeout.
+	 */
+	static final int IDLE_TIMEOUT_SECONDS = Integer.getInteger("zuul.idleTimeoutSeconds", 600);
+
+	/**
+	 * Resolution of the timers of an event loop in microseconds.
+	 */
+	static final int TIMER_TICK_MICROS = Integer.getInteger("zuul.timerTickMicros", 1000);
+
+	/**
+	 * How the network I/O of the players is done.
+	 */
+	static final ServerMode SERVER_MODE = ServerMode.of(System.getProperty("zuul.serverMode", "reactor"));
+
+	/**
+	 * Path of a world image compiled by {@link WorldCompiler}, the built-in world is used if it isn't set.
+	 */
+	static final String WORLD = System.getProperty("zuul.world");
+
+	/**
+	 * Layout of a world to generate at startup instead of loading one, see {@link WorldLayout}. Takes precedence
+	 * over {@link #WORLD}.
+	 */
+	static final String WORLD_LAYOUT = System.getProperty("zuul.worldLayout");
+
+	/**
+	 * Number of rooms of a generated world.
+	 */
+	static final int WORLD_ROOMS = Integer.getInteger("zuul.worldRooms", 10000);
+
+	/**
+	 * Seed of a generated world, the same seed gives the same world.
+	 */
+	static final long WORLD_SEED = Long.getLong("zuul.worldSeed", 0);
+
+	/**
+	 * Path of the snapshot of the world. It is restored at startup and written periodically. No snapshots are taken
+	 * if it isn't set.
+	 */
+	static final String SNAPSHOT = System.getProperty("zuul.snapshot");
+
+	/**
+	 * Seconds between two snapshots of the world.
+	 */
+	static final int SNAPSHOT_INTERVAL_SECONDS = Integer.getInteger("zuul.snapshotIntervalSeconds", 60);
+
+	/**
+	 * Directory of the journal of everything that happened since the last snapshot, replayed at startup. Needs
+	 * {@link #SNAPSHOT}. Nothing is journaled if it isn't set.
+	 */
+	static final String JOURNAL = System.getProperty("zuul.journal");
+
+	/**
+	 * Most milliseconds a record waits in memory before it is handed to the journal thread.
+	 */
+	static final int JOURNAL_FLUSH_MILLIS = Integer.getInteger("zuul.journalFlushMillis", 5);
+
+	/**
+	 * Size in bytes after which the journal starts a new segment.
+	 */
+	static final int JOURNAL_SEGMENT_BYTES = Integer.getInteger("zuul.journalSegmentBytes", 64 * 1024 * 1024);
+
+	/**
+	 * Seed of the random numbers of the game, different for every start by default.
+	 */
+	static final long RANDOM_SEED = Long.getLong("zuul.randomSeed", System.nanoTime());
+}
@@ -0,0 +1,328 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The network side of a player: the channel, its receive buffer and the framing of the incoming bytes into lines,
+ * and a bounded queue of outgoing messages.
+ * <p>
+ * A connection belongs to exactly one {@link EventLoop} which does all the reading and writing. The lines it reads
+ * are handed to the game, which may run on another thread. Messages from the game are never written straight
+ * away. They are queued and flushed in one gathering write once the owning loop is done with the current batch of
+ * events. Only while output is pending the selection key is interested in {@link SelectionKey#OP_WRITE}.
+ * <p>
+ * Input is throttled the same way: once {@link Config#MAX_PENDING_LINES} lines wait for the game the selection key
+ * loses interest in {@link SelectionKey#OP_READ} until the game handled all of them. A client sending faster than
+ * the game handles its lines fills up its own socket buffers, not the memory of the server.
+ */
+class Connection implements Session, LineDecoder.Handler, EventLoop.SelectionHandler {
+	private final SocketChannel socketChannel;
+	private final Game game;
+	private final EventLoop eventLoop;
+	private final LineDecoder decoder = new LineDecoder(Config.MAX_LINE_LENGTH);
+	private ByteBuffer receiveBuffer;
+	private SelectionKey selectionKey;
+	private Player player;
+	// lines handed to the game that it hasn't handled yet, the game counts them down on its own thread
+	private final AtomicInteger pendingLines = new AtomicInteger();
+	// only changed on the owning loop
+	private volatile boolean readingPaused = false;
+	// only used on the owning loop, the game closes the connection while handling a line it was given
+	private boolean decoding = false;
+	private boolean closeRequested = false;
+
+	// guarded by this, the game queues output from its own thread
+	private final OutboundQueue outbound = new OutboundQueue();
+	private boolean flushScheduled = false;
+	private boolean closing = false;
+	private boolean closed = false;
+
+	/**
+	 * @param socketChannel non blocking channel of the client
+	 * @param game          receiving the lines
+	 * @param eventLoop     that will own the connection
+	 */
+	Connection(SocketChannel socketChannel, Game game, EventLoop eventLoop) {
+		this.socketChannel = socketChannel;
+		this.game = game;
+		this.eventLoop = eventLoop;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Player getPlayer() {
+		return player;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setPlayer(Player player) {
+		this.player = player;
+	}
+
+	/**
+	 * Registers the channel with the owning loop's selector. Must be called on the owning loop.
+	 */
+	void register() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+		}
+		try {
+			receiveBuffer = eventLoop.getReceiveBufferPool().acquire();
+			selectionKey = socketChannel.register(eventLoop.getSelector(), SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			abort();
+			return;
+		}
+		eventLoop.scheduleFlush(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void handleSelection(SelectionKey selectionKey) {
+		if (selectionKey.isWritable()) {
+			flush();
+		}
+		if (selectionKey.isValid() && selectionKey.isReadable()) {
+			readInput();
+		}
+	}
+
+	/**
+	 * Reads whatever is available and hands every complete line to the game.
+	 * Aborts the connection if the peer closed it.
+	 * <p>
+	 * On the game loop the lines are handled during the call. If one of them closes the connection it is closed
+	 * only after decoding is done, so the receive buffer isn't returned to the pool while it is still in use.
+	 */
+	private void readInput() {
+		try {
+			int numRead = socketChannel.read(receiveBuffer);
+			if (numRead < 0) {
+				abort();
+				return;
+			}
+			receiveBuffer.flip();
+			boolean complete;
+			decoding = true;
+			try {
+				complete = decoder.decode(receiveBuffer, this);
+			} finally {
+				decoding = false;
+			}
+			if (closeRequested) {
+				close();
+				return;
+			}
+			if (complete) {
+				receiveBuffer.clear();
+			}
+		} catch (IOException e) {
+			abort();
+			return;
+		}
+		if (pendingLines.get() >= Config.MAX_PENDING_LINES && selectionKey.isValid()) {
+			readingPaused = true;
+			selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+			// the game may have caught up before it could see that reading was paused
+			if (pendingLines.get() == 0) {
+				resumeReading();
+			}
+		}
+	}
+
+	/**
+	 * Counts down a line the game handled and resumes reading once it handled all of them.
+	 * Called on the game loop.
+	 */
+	private void lineHandled() {
+		if (pendingLines.decrementAndGet() == 0 && readingPaused) {
+			if (eventLoop.inEventLoop()) {
+				resumeReading();
+			} else {
+				eventLoop.execute(this::resumeReading);
+			}
+		}
+	}
+
+	/**
+	 * Makes the selection key interested in input again. Must be called on the owning loop.
+	 */
+	private void resumeReading() {
+		if (!readingPaused || !selectionKey.isValid()) {
+			return;
+		}
+		readingPaused = false;
+		selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean onLine(CharSequence line) {
+		pendingLines.incrementAndGet();
+		game.handleLine(this, line, this::lineHandled);
+		return !closeRequested && !isClosed();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onLineTooLong() {
+		pendingLines.incrementAndGet();
+		game.handleLineTooLong(this, this::lineHandled);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The output is flushed by the owning loop.
+	 */
+	@Override
+	public void send(ByteBuffer message) {
+		synchronized (this) {
+			if (closing || closed) {
+				return;
+			}
+			if (!outbound.offer(message)) {
+				if (Config.SLOW_CONSUMER_POLICY != SlowConsumerPolicy.DISCONNECT) {
+					return;
+				}
+				closing = true;
+			}
+			if (flushScheduled) {
+				return;
+			}
+			flushScheduled = true;
+		}
+		eventLoop.scheduleFlush(this);
+	}
+
+	/**
+	 * Writes as much of the queued output as the socket accepts in one gathering write.
+	 * Registers interest in {@link SelectionKey#OP_WRITE} if something remains.
+	 * Must be called on the owning loop.
+	 */
+	void flush() {
+		boolean pending;
+		boolean abort;
+		synchronized (this) {
+			flushScheduled = false;
+			if (closed || selectionKey == null) {
+				return;
+			}
+			if (closing) {
+				pending = false;
+			} else {
+				try {
+					outbound.writeTo(socketChannel);
+				} catch (IOException e) {
+					closing = true;
+				}
+				pending = !outbound.isEmpty();
+			}
+			abort = closing;
+		}
+		if (abort) {
+			abort();
+			return;
+		}
+
+		int interestOps = selectionKey.interestOps();
+		if (!pending) {
+			if ((interestOps & SelectionKey.OP_WRITE) != 0) {
+				selectionKey.interestOps(interestOps & ~SelectionKey.OP_WRITE);
+			}
+		} else if ((interestOps & SelectionKey.OP_WRITE) == 0) {
+			selectionKey.interestOps(interestOps | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * @return true once the connection is closed, the game may close it while handling a line
+	 */
+	synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean isSlowConsumer(long now) {
+		return closing || outbound.isStalled(now);
+	}
+
+	/**
+	 * Closes the connection from the network side and lets the game know that the player is gone.
+	 * Must be called on the owning loop.
+	 */
+	void abort() {
+		synchronized (this) {
+			closing = true;
+		}
+		close();
+		game.connectionLost(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The connection is closed on the owning loop, once it is done decoding the current input.
+	 */
+	@Override
+	public void closeLater() {
+		if (eventLoop.inEventLoop()) {
+			if (decoding) {
+				closeRequested = true;
+			} else {
+				close();
+			}
+		} else {
+			eventLoop.execute(this::close);
+		}
+	}
+
+	/**
+	 * Closes the channel and returns the receive buffer to the pool.
+	 * Pending output is written if the socket accepts it right away, otherwise it is discarded.
+	 * Must be called on the owning loop.
+	 */
+	private void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (!closing) {
+				try {
+					outbound.writeTo(socketChannel);
+				} catch (IOException ignored) {
+					// the client is gone anyway
+				}
+			}
+			closed = true;
+			outbound.clear();
+		}
+		try {
+			socketChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (receiveBuffer != null) {
+			eventLoop.getReceiveBufferPool().release(receiveBuffer);
+			receiveBuffer = null;
+		}
+	}
+}
@@ -6,6 +6,11 @@ import java.util.Map;
 public enum Direction {
 	NORTH("north"), EAST("east"), SOUTH("south"), WEST("west");
 
+	/**
+	 * All directions in declaration order. Unlike values() this doesn't create a new array on every call.
+	 */
+	static final Direction[] VALUES = values();
+
 	private final String name;
 
 	Direction(String name) {
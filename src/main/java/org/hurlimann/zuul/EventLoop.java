@@ -0,0 +1,210 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single threaded reactor. It owns a selector and every channel registered with it, runs tasks submitted from
+ * other threads and a periodic task on a fixed deadline.
+ * <p>
+ * The loop blocks in the selector until I/O arrives, a task is submitted, the next periodic run is due or a timer
+ * of its {@link TimerWheel} expires.
+ * Everything registered with a loop must only be touched by the loop's thread, other threads hand work over
+ * through {@link #execute(Runnable)}.
+ */
+class EventLoop implements Runnable {
+	/**
+	 * Reacts to the readiness of a channel registered with an event loop.
+	 */
+	interface SelectionHandler {
+		/**
+		 * @param selectionKey that was selected, its attachment is the handler itself
+		 */
+		void handleSelection(SelectionKey selectionKey);
+	}
+
+	private final String name;
+	private final Selector selector;
+	private final long periodNanos;
+	private final Runnable periodicTask;
+	private final BufferPool receiveBufferPool =
+			new BufferPool(Config.RECEIVE_BUFFER_SIZE, Config.RECEIVE_BUFFER_POOL_SIZE);
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Queue<Connection> remoteFlushes = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private final List<Connection> connectionsToFlush = new ArrayList<>();
+	private final TimerWheel timers;
+	private volatile Thread thread;
+
+	/**
+	 * @param name         of the thread running the loop
+	 * @param periodNanos  time between two runs of the periodic task
+	 * @param periodicTask run every period on the loop's thread
+	 */
+	EventLoop(String name, long periodNanos, Runnable periodicTask) throws IOException {
+		this.name = name;
+		this.selector = Selector.open();
+		this.periodNanos = periodNanos;
+		this.periodicTask = periodicTask;
+		this.timers = new TimerWheel(TimeUnit.MICROSECONDS.toNanos(Config.TIMER_TICK_MICROS), System::nanoTime);
+	}
+
+	/**
+	 * Runs the loop on a new thread.
+	 */
+	void start() {
+		Thread t = new Thread(this, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	BufferPool getReceiveBufferPool() {
+		return receiveBufferPool;
+	}
+
+	/**
+	 * @return the timers of this loop, they may only be used on the loop's thread
+	 */
+	TimerWheel getTimers() {
+		return timers;
+	}
+
+	/**
+	 * @return true if the calling thread is the one running this loop
+	 */
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Runs a task on the loop's thread as soon as possible. Tasks run in the order they were submitted.
+	 *
+	 * @param task to run
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		wakeup();
+	}
+
+	/**
+	 * Remembers a connection owned by this loop that has pending output. It gets flushed at the end of the
+	 * current loop iteration, or right after the next wakeup if called from another thread.
+	 *
+	 * @param connection with pending output
+	 */
+	void scheduleFlush(Connection connection) {
+		if (inEventLoop()) {
+			connectionsToFlush.add(connection);
+		} else {
+			remoteFlushes.add(connection);
+			wakeup();
+		}
+	}
+
+	private void wakeup() {
+		if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * The loop itself. Never returns.
+	 */
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		long nextRun = System.nanoTime() + periodNanos;
+
+		//noinspection InfiniteLoopStatement
+		while (true) {
+			long now = System.nanoTime();
+			if (now - nextRun >= 0) {
+				runPeriodicTask();
+				nextRun += periodNanos;
+				if (now - nextRun >= 0) {
+					// we fell behind by more than a period, don't try to catch up with a burst of runs
+					nextRun = now + periodNanos;
+				}
+			}
+
+			try {
+				wakeupPending.set(false);
+				if (tasks.isEmpty() && remoteFlushes.isEmpty()) {
+					long timeout = TimeUnit.NANOSECONDS.toMillis(
+							Math.min(nextRun - now, timers.nanosUntilNextEvent()));
+					selector.select(Math.max(1, timeout));
+				} else {
+					selector.selectNow();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			runTasks();
+			timers.advance();
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey selectionKey = keys.next();
+				keys.remove();
+				if (selectionKey.isValid()) {
+					try {
+						((SelectionHandler) selectionKey.attachment()).handleSelection(selectionKey);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			runTasks();
+			flushConnections();
+		}
+	}
+
+	private void runPeriodicTask() {
+		try {
+			periodicTask.run();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+
+		Connection connection;
+		while ((connection = remoteFlushes.poll()) != null) {
+			connectionsToFlush.add(connection);
+		}
+	}
+
+	/**
+	 * Writes the pending output of every connection that got some during this loop iteration.
+	 */
+	private void flushConnections() {
+		for (int i = 0; i < connectionsToFlush.size(); i++) {
+			connectionsToFlush.get(i).flush();
+		}
+		connectionsToFlush.clear();
+	}
+}
@@ -1,15 +1,25 @@
 package org.hurlimann.zuul;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the main class of the "World of Zuul" application. "World of
@@ -19,6 +29,9 @@ import java.util.concurrent.ThreadLocalRandom;
  * <p>
  * To play this game, create an instance of this class, call the "initialize" and the "play"
  * method.
+ * <p>
+ * The rules of the game are applied by the {@link GameEngine}, this class connects it to the players on the network
+ * and to the clock.
  *
  * @author Philippe Hürlimann, Michael Kölling and David J. Barnes
  * @version 2016.10.27
@@ -26,201 +39,470 @@ import java.util.concurrent.ThreadLocalRandom;
 
 class Game {
 	/**
-	 * Item spawn chance in tenths of a percent
+	 * Time per frame in milliseconds
 	 */
-	private static final long MAX_ITEM_COUNT = 15;
+	private static final long TIME_PER_FRAME = 500;
+
+	private static final long TIME_PER_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(TIME_PER_FRAME);
 
 	/**
-	 * Time per frame in milliseconds
+	 * Definition of the world played unless another one is configured
 	 */
-	private static final long TIME_PER_FRAME = 500;
+	private static final String BUILT_IN_WORLD = "/worlds/university.world";
 
-	private Room startingRoom;
-	private Map<SocketChannel, Player> playerMap = new HashMap<>();
-	private final List<Room> rooms;
-	private Selector selector;
+	/**
+	 * Most connections accepted in one go before the game loop turns to its other work
+	 */
+	private static final int ACCEPTS_PER_SELECTION = 64;
 
 	/**
-	 * Create the game, initialise its internal map and opens sets up the network connection.
+	 * Most rooms collected for a snapshot per frame
 	 */
-	public Game() throws IOException {
-		Room outside, theater, pub, lab, office, cafeteria;
+	private static final int SNAPSHOT_ROOMS_PER_FRAME = 50_000;
+
+	private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Config.IDLE_TIMEOUT_SECONDS);
+
+	private final GameEngine engine;
+	private final World world;
+	// the sessions connected over the network
+	private final Map<Session, SessionState> sessions = new HashMap<>();
+	private final AdmissionControl admission = new AdmissionControl(Config.MAX_SESSIONS,
+			Config.MAX_SESSIONS_PER_ADDRESS, Config.MAX_ACCEPTS_PER_TICK);
+	private ServerSocketChannel serverSocketChannel;
+	private final EventLoop gameLoop;
+	private final EventLoop[] workers;
+	// null in reactor mode
+	private final ThreadFactory sessionThreads;
+	private SelectionKey acceptKey;
+	// null if no snapshots are taken
+	private final Path snapshotPath;
+	private final ExecutorService snapshotWriter;
+	private Future<?> pendingSnapshot;
+	// null if nothing is journaled, the journal is only written once the world is recovered
+	private final Path journalDirectory;
+	private Journal journal;
+	private int nextWorker = 0;
 
-		// create the rooms
-		outside = new Room("outside the main entrance of the university");
-		theater = new Room("in a lecture theater");
-		pub = new Room("in the campus pub");
-		lab = new Room("in a computing lab");
-		office = new Room("in the computing admin office");
-		cafeteria = new Room("in the cafeteria. There's lots of delicious food.");
+	/**
+	 * Create the game and initialise its internal map. The network connection is set up once it is played.
+	 */
+	public Game() throws IOException {
+		world = loadWorld();
+		engine = new GameEngine(world, this::sessionEnded);
 
-		outside.setExit(Direction.EAST, theater);
-		outside.setExit(Direction.SOUTH, lab);
-		outside.setExit(Direction.WEST, pub);
+		if (Config.JOURNAL != null && Config.SNAPSHOT == null) {
+			throw new IllegalArgumentException("A journal needs snapshots, set zuul.snapshot too");
+		}
+		journalDirectory = Config.JOURNAL == null ? null : Paths.get(Config.JOURNAL);
+		if (Config.SNAPSHOT != null) {
+			snapshotPath = Paths.get(Config.SNAPSHOT);
+			snapshotWriter = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, "zuul-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			snapshotPath = null;
+			snapshotWriter = null;
+		}
 
-		theater.setExit(Direction.WEST, outside);
+		gameLoop = new EventLoop("zuul-game", TIME_PER_FRAME_NANOS, this::tick);
 
-		pub.setExit(Direction.EAST, outside);
-		pub.setExit(Direction.WEST, cafeteria);
+		if (Config.SERVER_MODE == ServerMode.REACTOR) {
+			workers = new EventLoop[Config.WORKER_THREADS];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new EventLoop("zuul-worker-" + i, TIME_PER_FRAME_NANOS, () -> {
+				});
+			}
+			sessionThreads = null;
+		} else {
+			workers = new EventLoop[0];
+			// resolved up front, so a fallback to platform threads is reported at startup
+			sessionThreads = VirtualThreads.factory("zuul-session");
+		}
+	}
 
-		cafeteria.setExit(Direction.EAST, pub);
+	/**
+	 * Generates the world described by {@link Config#WORLD_LAYOUT}, or loads the one named by
+	 * {@link Config#WORLD}, or the built-in one.
+	 */
+	static World loadWorld() throws IOException {
+		if (Config.WORLD_LAYOUT != null) {
+			WorldLayout layout = WorldLayout.of(Config.WORLD_LAYOUT);
+			return new World(new WorldGenerator(layout, Config.WORLD_ROOMS, Config.WORLD_SEED).generate());
+		}
+		if (Config.WORLD != null) {
+			return new World(WorldImage.map(Paths.get(Config.WORLD)));
+		}
+		InputStream definition = Game.class.getResourceAsStream(BUILT_IN_WORLD);
+		if (definition == null) {
+			throw new IOException("Missing " + BUILT_IN_WORLD);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(definition, StandardCharsets.UTF_8))) {
+			return new World(WorldDefinition.parse(reader, BUILT_IN_WORLD));
+		}
+	}
 
-		lab.setExit(Direction.NORTH, outside);
-		lab.setExit(Direction.EAST, office);
+	/**
+	 * Main play routine. Loops until end of play.
+	 * <p>
+	 * Starts the threads doing the network I/O of the players and then runs the game loop on the calling thread.
+	 * The game loop executes every command and advances the world each frame. Running all game logic on this one
+	 * thread keeps the shared state of rooms and players consistent.
+	 * <p>
+	 * In {@link ServerMode#REACTOR} mode the game loop accepts new players and hands their connections to the
+	 * worker loops, or does their I/O itself if there are none. In {@link ServerMode#VIRTUAL_THREADS} mode an
+	 * acceptor thread starts a pair of virtual threads doing blocking I/O for every new player.
+	 *
+	 * @throws IOException if the server socket can't be opened
+	 */
+	public void play() throws IOException {
+		serverSocketChannel = ServerSocketChannel.open();
+		serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLocalHost(), 7331), Config.ACCEPT_BACKLOG);
+		if (Config.SERVER_MODE == ServerMode.REACTOR) {
+			serverSocketChannel.configureBlocking(false);
+			acceptKey = serverSocketChannel.register(gameLoop.getSelector(), SelectionKey.OP_ACCEPT,
+					(EventLoop.SelectionHandler) this::acceptNewPlayers);
+		}
 
-		office.setExit(Direction.WEST, lab);
+		for (EventLoop worker : workers) {
+			worker.start();
+		}
+		if (Config.SERVER_MODE == ServerMode.VIRTUAL_THREADS) {
+			Thread acceptor = new Thread(this::acceptBlocking, "zuul-acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+		if (snapshotWriter != null) {
+			scheduleSnapshot();
+		}
+		gameLoop.run();
+	}
 
-		startingRoom = outside; // start game outside
+	/**
+	 * Brings the world back to where it was when the server stopped: restores the last snapshot, if there is one,
+	 * and replays the journal written since. The players that were connected are gone, they leave the items they
+	 * carried in the rooms they were in. With a journal a fresh snapshot of the recovered world is written right
+	 * away and the journal starts over from it.
+	 * <p>
+	 * Must be called before {@link #play()}, on the same thread.
+	 *
+	 * @throws IOException if the snapshot or the journal can't be read, or the journal doesn't fit the snapshot
+	 */
+	void recover() throws IOException {
+		long firstSegment = 0;
+		if (snapshotPath != null && Files.exists(snapshotPath)) {
+			firstSegment = engine.restoreSnapshot(snapshotPath);
+		}
+		if (journalDirectory == null) {
+			engine.releaseDetachedPlayers();
+			return;
+		}
 
-		List<Room> rooms = new ArrayList<>();
-		rooms.add(outside);
-		rooms.add(theater);
-		rooms.add(theater);
-		rooms.add(pub);
-		rooms.add(lab);
-		rooms.add(office);
-		rooms.add(cafeteria);
+		Files.createDirectories(journalDirectory);
+		engine.replayJournal(journalDirectory, firstSegment);
+		engine.releaseDetachedPlayers();
 
-		this.rooms = Collections.unmodifiableList(rooms);
+		List<Long> segments = Journal.segments(journalDirectory);
+		long segment = segments.isEmpty() ? firstSegment : Math.max(firstSegment, segments.get(segments.size() - 1) + 1);
+		world.startSnapshot(segment);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(snapshotPath);
+		Journal.deleteSegmentsBefore(journalDirectory, segment);
 
-		final ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-		serverSocketChannel.configureBlocking(false);
-		serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLocalHost(), 7331));
+		journal = new Journal(journalDirectory, segment, gameLoop.getTimers());
+		engine.setJournal(journal);
+	}
 
-		selector = Selector.open();
-		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+	private void scheduleSnapshot() {
+		gameLoop.getTimers().schedule(this::takeSnapshot, Math.max(1, Config.SNAPSHOT_INTERVAL_SECONDS),
+				TimeUnit.SECONDS);
 	}
 
 	/**
-	 * Main play routine. Loops until end of play.
+	 * Starts capturing a snapshot of the world, it is completed frame by frame. The snapshot is skipped if the
+	 * previous one is still being captured or written.
 	 */
-	public void play() throws IOException, InterruptedException {
+	private void takeSnapshot() {
+		scheduleSnapshot();
+		if (!world.isCapturingSnapshot() && (pendingSnapshot == null || pendingSnapshot.isDone())) {
+			world.startSnapshot(journal == null ? 0 : journal.roll());
+			captureSnapshot();
+		}
+	}
 
-		//noinspection InfiniteLoopStatement
-		while (true) {
-			final long timeAtStartOfFrame = System.currentTimeMillis();
-			triggerPotentialSpawns();
-
-			Iterator<Map.Entry<SocketChannel, Player>> it = playerMap.entrySet().iterator();
-			while (it.hasNext()) {
-				Map.Entry<SocketChannel, Player> entry = it.next();
-				if (entry.getValue().isToDelete()) {
-					SocketChannel socketChannel = entry.getKey();
-					it.remove();
-					removeAndCleanupPlayer(socketChannel);
+	/**
+	 * Captures the next slice of the snapshot and leaves writing it to the snapshot thread once it is complete.
+	 */
+	private void captureSnapshot() {
+		WorldSnapshot snapshot = world.advanceSnapshot(SNAPSHOT_ROOMS_PER_FRAME);
+		if (snapshot == null) {
+			return;
+		}
+		pendingSnapshot = snapshotWriter.submit(() -> {
+			try {
+				snapshot.write(snapshotPath);
+				if (journalDirectory != null) {
+					Journal.deleteSegmentsBefore(journalDirectory, snapshot.getJournalSegment());
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
+		});
+	}
 
-			selector.selectNow();
-			for (SelectionKey selectionKey : selector.selectedKeys()) {
-				if (selectionKey.isAcceptable()) {
-					acceptNewPlayer(selectionKey);
-				} else if (selectionKey.isReadable()) {
-					readPlayerInput(selectionKey);
-				}
-			}
+	/**
+	 * Runs every frame: advances the world, takes the next step of a snapshot and removes players that stopped
+	 * reading their output. Accepting connections resumes with a fresh budget.
+	 */
+	private void tick() {
+		admission.newTick();
+		if (acceptKey != null && acceptKey.interestOps() == 0) {
+			acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+		}
 
-			selector.selectedKeys().clear();
+		engine.advanceFrame();
+		captureSnapshot();
 
-			final long timeAtEndOfFrame = System.currentTimeMillis();
-			final long timeToSleep = TIME_PER_FRAME - (timeAtEndOfFrame - timeAtStartOfFrame);
+		final long now = System.nanoTime();
+		engine.removePlayers(session -> session.isSlowConsumer(now));
+	}
 
-			if (timeToSleep > 0) {
-				Thread.sleep(timeToSleep);
+	/**
+	 * Forgets the network side of a session whose player left the game.
+	 *
+	 * @param session that ended
+	 */
+	private void sessionEnded(Session session) {
+		SessionState state = sessions.remove(session);
+		if (state != null) {
+			if (state.idleTimer != null) {
+				state.idleTimer.cancel();
 			}
+			admission.release(state.address);
+		}
+	}
 
+	/**
+	 * Runs a task on the game loop, right away if already on it.
+	 */
+	private void runOnGameLoop(Runnable task) {
+		if (gameLoop.inEventLoop()) {
+			task.run();
+		} else {
+			gameLoop.execute(task);
 		}
 	}
 
 	/**
-	 * Handles the cleanup of a player that is slated to be removed
+	 * Hands a line a player sent to the game loop, which decides what to do with it.
+	 * Removes players that want to quit.
+	 * <p>
+	 * On the game loop the line is handled right away, without copying it. Lines read by other threads are copied
+	 * first, since the buffer they live in is reused for the next line.
 	 *
-	 * @param socketChannel
+	 * @param session the line was read from
+	 * @param line    without its line terminator, only valid during the call
+	 * @param handled run on the game loop once the line was handled, lets the session keep track of the lines
+	 *                that are still waiting
 	 */
-	private void removeAndCleanupPlayer(SocketChannel socketChannel) {
-		playerMap.remove(socketChannel);
-		try {
-			socketChannel.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+	void handleLine(Session session, CharSequence line, Runnable handled) {
+		if (gameLoop.inEventLoop()) {
+			processLine(session, line);
+			handled.run();
+		} else {
+			String copy = line.toString();
+			gameLoop.execute(() -> {
+				processLine(session, copy);
+				handled.run();
+			});
+		}
+	}
+
+	private void processLine(Session session, CharSequence line) {
+		SessionState state = sessions.get(session);
+		if (state != null) {
+			state.lastInput = System.nanoTime();
+			engine.processLine(session, line);
 		}
 	}
 
 	/**
-	 * Handles the cleanup of a player that is slated to be removed
+	 * Lets the player know that a line they sent was discarded because it was too long.
 	 *
-	 * @param socketChannel
-	 * @param selectionKey
+	 * @param session the line was read from
+	 * @param handled run on the game loop once the player was told
 	 */
-	private void removeAndCleanupPlayer(SocketChannel socketChannel, SelectionKey selectionKey) {
-		selectionKey.cancel();
-		removeAndCleanupPlayer(socketChannel);
+	void handleLineTooLong(Session session, Runnable handled) {
+		runOnGameLoop(() -> {
+			SessionState state = sessions.get(session);
+			if (state != null) {
+				state.lastInput = System.nanoTime();
+				engine.processLineTooLong(session);
+			}
+			handled.run();
+		});
 	}
 
 	/**
-	 * Triggers spawnings every cycle
+	 * Removes the player of a session that was closed from the network side.
+	 *
+	 * @param session that was closed
 	 */
-	private void triggerPotentialSpawns() {
-		long itemsCount = rooms
-				.stream()
-				.flatMap(r -> r.getItems().stream())
-				.count();
-
-		if (itemsCount < MAX_ITEM_COUNT) {
-			rooms.forEach(Room::updateRoom);
-		}
+	void connectionLost(Session session) {
+		runOnGameLoop(() -> engine.removePlayer(session));
 	}
 
 	/**
-	 * Reads player input and decided what to do with it.
-	 * Removes players that want to quit or abruptly disconnect.
-	 * @param selectionKey
-	 * @throws IOException
+	 * Accepts new connections and hands them to the workers in turn, or keeps them on the game loop if there are
+	 * none. Once the budget of accepts for this frame is used up the game loop stops listening for connections until
+	 * the next frame, those that keep coming wait in the backlog of the server socket.
+	 *
+	 * @param selectionKey of the server socket
 	 */
-	private void readPlayerInput(SelectionKey selectionKey) throws IOException {
-		SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-		ByteBuffer buffer = ByteBuffer.allocate(1024);
-		int numRead = socketChannel.read(buffer);
-		if (numRead > -1) {
-			Player player = playerMap.get(socketChannel);
+	private void acceptNewPlayers(SelectionKey selectionKey) {
+		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
+		for (int i = 0; i < ACCEPTS_PER_SELECTION; i++) {
+			if (!admission.mayAccept()) {
+				selectionKey.interestOps(0);
+				return;
+			}
+			SocketChannel socketChannel;
+			try {
+				socketChannel = serverSocketChannel.accept();
+				if (socketChannel == null) {
+					return;
+				}
+				socketChannel.configureBlocking(false);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			admission.accepted();
+			InetAddress address = admit(socketChannel);
+			if (address == null) {
+				continue;
+			}
 
-			byte[] data = new byte[numRead];
-			System.arraycopy(buffer.array(), 0, data, 0, numRead);
-			String input = new String(data);
+			EventLoop eventLoop = workers.length == 0 ? gameLoop : workers[nextWorker++ % workers.length];
+			Connection connection = new Connection(socketChannel, this, eventLoop);
+			addPlayer(connection, address);
 
-			boolean wantToQuit = player.handleInput(input);
-			if (wantToQuit) {
-				socketChannel.close();
-				playerMap.remove(socketChannel);
+			if (eventLoop.inEventLoop()) {
+				connection.register();
+			} else {
+				eventLoop.execute(connection::register);
 			}
-		} else {
-			removeAndCleanupPlayer(socketChannel, selectionKey);
 		}
 	}
 
 	/**
-	 * Creates a new player and adds him to the appropriate collections.
-	 * @param selectionKey
+	 * Accepts connections with blocking calls and serves each of them with virtual threads of its own.
+	 * The players are created on the game loop.
 	 */
-	private void acceptNewPlayer(SelectionKey selectionKey) {
-		SocketChannel socketChannel = null;
-		try {
-			ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
-			socketChannel = serverSocketChannel.accept();
+	private void acceptBlocking() {
+		//noinspection InfiniteLoopStatement
+		while (true) {
+			try {
+				admission.awaitAccept();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				SocketChannel socketChannel = serverSocketChannel.accept();
+				InetAddress address = admit(socketChannel);
+				if (address == null) {
+					continue;
+				}
+				BlockingSession session = new BlockingSession(socketChannel, this, sessionThreads);
+				gameLoop.execute(() -> {
+					addPlayer(session, address);
+					session.start();
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
+	/**
+	 * Asks the admission control whether a new connection may stay. A connection that may not is told why and
+	 * closed.
+	 *
+	 * @param socketChannel of the new connection
+	 * @return the address the connection comes from, or null if it was turned away
+	 */
+	private InetAddress admit(SocketChannel socketChannel) {
+		try {
+			InetAddress address = ((InetSocketAddress) socketChannel.getRemoteAddress()).getAddress();
+			ByteBuffer rejection = admission.admit(address);
+			if (rejection == null) {
+				return address;
+			}
+			// a single write that doesn't wait, the message fits into the send buffer of a new socket
 			socketChannel.configureBlocking(false);
-			socketChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			socketChannel.write(rejection.duplicate());
+		} catch (IOException e) {
+			// the client hung up already
+		}
+		try {
+			socketChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Lets a connection join the game as a new player.
+	 * Must be called on the game loop.
+	 *
+	 * @param session of the new player
+	 * @param address the player connected from
+	 */
+	private void addPlayer(Session session, InetAddress address) {
+		SessionState state = new SessionState(address, System.nanoTime());
+		sessions.put(session, state);
+		if (IDLE_TIMEOUT_NANOS > 0) {
+			scheduleIdleCheck(session, state, IDLE_TIMEOUT_NANOS);
+		}
+		engine.addPlayer(session);
+	}
 
-			long newUserId = ThreadLocalRandom.current().nextLong(0, Long.MAX_VALUE);
-			final Player newPlayer = new Player("player" + newUserId,
-					startingRoom, socketChannel);
-			playerMap.put(socketChannel, newPlayer);
+	private void scheduleIdleCheck(Session session, SessionState state, long delayNanos) {
+		state.idleTimer = gameLoop.getTimers().schedule(() -> checkIdle(session), delayNanos, TimeUnit.NANOSECONDS);
+	}
 
-			startingRoom.addPlayer(newPlayer);
+	/**
+	 * Disconnects a player that sent nothing for {@link Config#IDLE_TIMEOUT_SECONDS}. Input doesn't touch the timer,
+	 * a player that was active is just checked again once the timeout could have passed.
+	 *
+	 * @param session of the player
+	 */
+	private void checkIdle(Session session) {
+		SessionState state = sessions.get(session);
+		if (state == null) {
+			return;
+		}
+		long idle = System.nanoTime() - state.lastInput;
+		if (idle >= IDLE_TIMEOUT_NANOS) {
+			session.send(Messages.IDLE_TIMEOUT.duplicate());
+			engine.removePlayer(session);
+		} else {
+			scheduleIdleCheck(session, state, IDLE_TIMEOUT_NANOS - idle);
+		}
+	}
 
-			newPlayer.printWelcome();
-		} catch (IOException e) {
-			removeAndCleanupPlayer(socketChannel, selectionKey);
+	/**
+	 * What the game keeps about a session besides its player.
+	 */
+	private static final class SessionState {
+		private final InetAddress address;
+		private long lastInput;
+		private TimerWheel.Timer idleTimer;
+
+		SessionState(InetAddress address, long lastInput) {
+			this.address = address;
+			this.lastInput = lastInput;
 		}
 	}
 }
@@ -0,0 +1,334 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The rules of the game applied to a world: players join and leave, their commands are executed and the world
+ * advances frame by frame. Knows nothing about networks or clocks, all it needs of a player is a {@link Session} to
+ * send output to. The {@link Game} drives it from the game loop with the players connected over the network,
+ * the {@link Simulator} drives it with bots as fast as it can.
+ * <p>
+ * Not thread-safe, must only be used by one thread.
+ */
+class GameEngine {
+	/**
+	 * Most items lying around in the whole world, no more spawn while there are as many
+	 */
+	private static final long MAX_ITEM_COUNT = 15;
+
+	private final World world;
+	// in the order the players joined, so a run with the same seed and the same input removes them the same way
+	private final Set<Session> sessions = new LinkedHashSet<>();
+	private final Consumer<Session> leaveListener;
+	// null if nothing is journaled
+	private Journal journal;
+	// sessions of the players restored from a snapshot or by a replay of the journal, by player id
+	private final Map<Long, Session> detachedSessions = new HashMap<>();
+	private long frame = 0;
+
+	/**
+	 * @param world         to play in
+	 * @param leaveListener told about every session whose player left the game, after the session was closed
+	 */
+	GameEngine(World world, Consumer<Session> leaveListener) {
+		this.world = world;
+		this.leaveListener = leaveListener;
+	}
+
+	/**
+	 * @param world to play in
+	 */
+	GameEngine(World world) {
+		this(world, session -> {
+		});
+	}
+
+	World getWorld() {
+		return world;
+	}
+
+	/**
+	 * @return number of frames advanced so far
+	 */
+	long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return number of players in the game
+	 */
+	int getPlayerCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return true if the player of the session is still in the game
+	 */
+	boolean isPlaying(Session session) {
+		return sessions.contains(session);
+	}
+
+	/**
+	 * @param journal to record every turn the game takes in, null to stop recording
+	 */
+	void setJournal(Journal journal) {
+		this.journal = journal;
+		world.getRandom().setRecorder(journal == null ? null : journal::random);
+	}
+
+	/**
+	 * Creates a new player for a session and adds him to the appropriate collections.
+	 *
+	 * @param session of the new player
+	 * @return the new player
+	 */
+	Player addPlayer(Session session) {
+		long newUserId = world.getPlayers().nextId();
+		final Room startingRoom = world.getStartingRoom();
+		final Player newPlayer = new Player(newUserId, "player" + newUserId,
+				world, startingRoom, session);
+		session.setPlayer(newPlayer);
+		sessions.add(session);
+		if (journal != null) {
+			journal.connect(newUserId);
+		}
+		while (!world.getPlayers().register(newPlayer)) {
+			// somebody renamed himself to the default name already
+			newPlayer.setName("player" + world.getPlayers().nextId());
+		}
+
+		startingRoom.addPlayer(newPlayer);
+
+		newPlayer.printWelcome();
+		return newPlayer;
+	}
+
+	/**
+	 * Executes a line a player sent. Removes players that want to quit.
+	 *
+	 * @param session the line was read from
+	 * @param line    without its line terminator, only valid during the call
+	 * @return false if the session has no player in the game (anymore)
+	 */
+	boolean processLine(Session session, CharSequence line) {
+		if (!sessions.contains(session)) {
+			return false;
+		}
+		if (journal != null) {
+			journal.line(session.getPlayer().getId(), frame, line);
+		}
+		if (session.getPlayer().handleInput(line)) {
+			removePlayer(session);
+		}
+		return true;
+	}
+
+	/**
+	 * Lets the player know that a line they sent was discarded because it was too long.
+	 *
+	 * @param session the line was read from
+	 * @return false if the session has no player in the game (anymore)
+	 */
+	boolean processLineTooLong(Session session) {
+		if (!sessions.contains(session)) {
+			return false;
+		}
+		session.getPlayer().handleLineTooLong();
+		return true;
+	}
+
+	/**
+	 * Advances the world by one frame: spawns items and removes players that are slated for deletion. Depends on
+	 * nothing but the state of the world, so a replay of the journal advances it just the same.
+	 */
+	void advanceFrame() {
+		frame++;
+		if (journal != null) {
+			journal.frame(frame);
+		}
+		triggerPotentialSpawns();
+		removePlayers(session -> session.getPlayer().isToDelete());
+	}
+
+	/**
+	 * Cleans up the active rooms and triggers spawnings every cycle
+	 */
+	private void triggerPotentialSpawns() {
+		world.updateRooms();
+		if (world.getItemCount() < MAX_ITEM_COUNT) {
+			world.spawnItems();
+		}
+	}
+
+	/**
+	 * Removes the players whose sessions meet a condition.
+	 *
+	 * @param condition of the sessions to remove
+	 */
+	void removePlayers(Predicate<Session> condition) {
+		List<Session> toRemove = null;
+		for (Session session : sessions) {
+			if (condition.test(session)) {
+				if (toRemove == null) {
+					toRemove = new ArrayList<>();
+				}
+				toRemove.add(session);
+			}
+		}
+		if (toRemove != null) {
+			toRemove.forEach(this::removePlayer);
+		}
+	}
+
+	/**
+	 * Handles the cleanup of a player that is slated to be removed, or whose session ended. Does nothing if the
+	 * player is gone already.
+	 *
+	 * @param session of the player
+	 */
+	void removePlayer(Session session) {
+		if (sessions.remove(session)) {
+			if (journal != null) {
+				journal.disconnect(session.getPlayer().getId());
+			}
+			session.getPlayer().disconnect();
+			world.getPlayers().unregister(session.getPlayer());
+			session.closeLater();
+			leaveListener.accept(session);
+		}
+	}
+
+	/**
+	 * Restores a snapshot into the world, which must still be empty. The players of the snapshot stay in the game
+	 * without a connection until {@link #releaseDetachedPlayers()}.
+	 *
+	 * @param path of the snapshot
+	 * @return the first segment of the journal to replay on top of the snapshot
+	 * @throws IOException if the snapshot can't be read or doesn't fit the world
+	 */
+	long restoreSnapshot(Path path) throws IOException {
+		return WorldSnapshot.load(path, world, playerId -> {
+			Session session = new DetachedSession();
+			sessions.add(session);
+			detachedSessions.put(playerId, session);
+			return session;
+		});
+	}
+
+	/**
+	 * Replays a journal on the world as fast as possible. The players that join in the journal stay in the game
+	 * without a connection until {@link #releaseDetachedPlayers()}.
+	 *
+	 * @param directory    of the journal
+	 * @param firstSegment the first segment to replay
+	 * @return number of records replayed
+	 * @throws IOException if the journal can't be read or the world takes other turns than it did when the journal
+	 *                     was written
+	 */
+	long replayJournal(Path directory, long firstSegment) throws IOException {
+		Journal.Reader reader = new Journal.Reader(directory, firstSegment);
+		world.getRandom().setPlayback(reader::nextRandom);
+		long records = 0;
+		try {
+			int type;
+			while ((type = reader.next()) != Journal.END) {
+				records++;
+				Session session;
+				switch (type) {
+					case Journal.CONNECT:
+						session = new DetachedSession();
+						addPlayer(session);
+						if (session.getPlayer().getId() != reader.getPlayerId()) {
+							throw new IOException(reader.getSegmentPath() + " doesn't fit, player "
+									+ reader.getPlayerId() + " got id " + session.getPlayer().getId());
+						}
+						detachedSessions.put(reader.getPlayerId(), session);
+						break;
+					case Journal.LINE:
+						session = detachedSessions.get(reader.getPlayerId());
+						if (session != null) {
+							processLine(session, reader.getLine());
+						}
+						break;
+					case Journal.DISCONNECT:
+						session = detachedSessions.remove(reader.getPlayerId());
+						if (session != null) {
+							removePlayer(session);
+						}
+						break;
+					case Journal.FRAME:
+						frame = reader.getFrame() - 1;
+						advanceFrame();
+						break;
+					default:
+						throw new IOException(reader.getSegmentPath() + " has a random number nobody drew");
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			world.getRandom().setPlayback(null);
+		}
+		return records;
+	}
+
+	/**
+	 * Removes the players restored from a snapshot or by a replay, their connections are gone. The items they carried
+	 * stay in the rooms they were in.
+	 */
+	void releaseDetachedPlayers() {
+		for (Session session : detachedSessions.values()) {
+			Player player = session.getPlayer();
+			if (!player.isToDelete()) {
+				for (Item item : player.getItems()) {
+					player.getRoom().addItem(item);
+				}
+			}
+			removePlayer(session);
+		}
+		detachedSessions.clear();
+		world.updateRooms();
+	}
+
+	/**
+	 * The session of a player restored from a snapshot or by a replay of the journal. There is nobody on the other
+	 * end, output goes nowhere.
+	 */
+	private static final class DetachedSession implements Session {
+		private Player player;
+
+		@Override
+		public Player getPlayer() {
+			return player;
+		}
+
+		@Override
+		public void setPlayer(Player player) {
+			this.player = player;
+		}
+
+		@Override
+		public void send(ByteBuffer message) {
+		}
+
+		@Override
+		public boolean isSlowConsumer(long now) {
+			return false;
+		}
+
+		@Override
+		public void closeLater() {
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.hurlimann.zuul;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * The source of all chance in the game: which rooms spawn items and what the items are like.
+ * <p>
+ * A SplitMix64 generator, the same seed gives the same numbers. Every number drawn can be handed to a recorder,
+ * the {@link Journal}, and a replay feeds the recorded numbers back instead of drawing new ones. That way a replay
+ * takes exactly the turns the game took, whatever the generator was seeded with.
+ * <p>
+ * Not thread-safe, it belongs to the game loop.
+ */
+class GameRandom {
+	private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+	private LongConsumer recorder;
+	private LongSupplier playback;
+
+	/**
+	 * @param seed of the generator
+	 */
+	GameRandom(long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * @param seed to start over with
+	 */
+	void setSeed(long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * @param recorder getting every number drawn, null to stop recording
+	 */
+	void setRecorder(LongConsumer recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @param playback supplying the numbers to hand out instead of drawing them, null to draw them again
+	 */
+	void setPlayback(LongSupplier playback) {
+		this.playback = playback;
+	}
+
+	/**
+	 * @return 64 random bits
+	 */
+	long nextLong() {
+		long value;
+		if (playback != null) {
+			value = playback.getAsLong();
+		} else {
+			long z = state += GAMMA;
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			value = z ^ (z >>> 31);
+		}
+		if (recorder != null) {
+			recorder.accept(value);
+		}
+		return value;
+	}
+
+	/**
+	 * @return a number from 0 inclusive to 1 exclusive
+	 */
+	double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param bound exclusive upper bound, positive
+	 * @return a number from 0 inclusive to the bound exclusive
+	 */
+	int nextInt(int bound) {
+		// the high 32 bits scaled to the bound
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * @param origin inclusive lower bound
+	 * @param bound  exclusive upper bound, greater than the origin
+	 * @return a number from the origin inclusive to the bound exclusive
+	 */
+	int nextInt(int origin, int bound) {
+		return origin + nextInt(bound - origin);
+	}
+}
@@ -0,0 +1,494 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of everything that changes the world between two snapshots: players joining and leaving,
+ * every line they send, every frame and every random number drawn. Replaying the journal on top of the
+ * {@link WorldSnapshot} it follows takes the world exactly to where it was, see {@link Reader}.
+ * <p>
+ * Records are appended on the game loop to a batch in memory. The batch is handed to the journal thread once it is
+ * full or {@link Config#JOURNAL_FLUSH_MILLIS} after its first record. The journal thread writes all batches that are
+ * waiting and then syncs the file once for all of them, so a busy server pays for one fsync per group of batches
+ * instead of one per command. A crash loses the batches that weren't synced yet.
+ * <p>
+ * The game doesn't wait for the journal: the output of a command reaches the player before the command is synced.
+ * After a crash a player may thus have seen the outcome of commands the recovered world never took, up to
+ * {@link Config#JOURNAL_FLUSH_MILLIS} and the time of an fsync worth of them. Holding back all output until its
+ * group was synced would close that gap at the cost of that much latency for every command.
+ * <p>
+ * The journal is split into segments, files named after their consecutive numbers. A new segment starts with every
+ * snapshot, so a snapshot only needs the segments from its own on, and when a segment grows beyond
+ * {@link Config#JOURNAL_SEGMENT_BYTES}.
+ * <p>
+ * A segment starts with a magic number and its number (long). Batches follow, each of them framed by its length and
+ * the CRC-32 of its records. A batch whose frame doesn't check out ends the segment, a crash tore it off there.
+ * Every record starts with its type, all numbers are big endian:
+ * <pre>
+ * CONNECT     player id (long)
+ * LINE        player id (long), frame (long), length in bytes, UTF-8 bytes
+ * DISCONNECT  player id (long)
+ * FRAME       frame (long)
+ * RANDOM      number (long)
+ * </pre>
+ */
+class Journal {
+	/**
+	 * A player joined.
+	 */
+	static final int CONNECT = 1;
+	/**
+	 * A player sent a line.
+	 */
+	static final int LINE = 2;
+	/**
+	 * A player left or was removed.
+	 */
+	static final int DISCONNECT = 3;
+	/**
+	 * The world advanced by a frame.
+	 */
+	static final int FRAME = 4;
+	/**
+	 * A random number was drawn.
+	 */
+	static final int RANDOM = 5;
+	/**
+	 * Returned by the {@link Reader} once there are no more records.
+	 */
+	static final int END = 0;
+
+	private static final int MAGIC = 0x5a4a4e31; // "ZJN1"
+	private static final int SEGMENT_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+	private static final int FRAME_HEADER_SIZE = 2 * Integer.BYTES;
+	private static final int BATCH_SIZE = 64 * 1024;
+	// most batches waiting for the journal thread before the game loop has to wait
+	private static final int MAX_PENDING_BATCHES = 64;
+	private static final String SUFFIX = ".journal";
+	// stops the journal thread once the batches before it are written
+	private static final Batch CLOSE = new Batch(-1, ByteBuffer.allocate(0));
+
+	private final Path directory;
+	private final TimerWheel timers;
+	private final Thread thread;
+	private final BlockingQueue<Batch> pending = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+	private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private long segment;
+	// bytes handed to the journal thread for the current segment
+	private long segmentSize = 0;
+	private ByteBuffer batch;
+	private TimerWheel.Timer flushTimer;
+
+	/**
+	 * Starts a journal and its thread.
+	 *
+	 * @param directory of the segments
+	 * @param segment   number of the first segment to write, it must not exist yet
+	 * @param timers    of the game loop, the journal is only used on it
+	 */
+	Journal(Path directory, long segment, TimerWheel timers) {
+		this.directory = directory;
+		this.segment = segment;
+		this.timers = timers;
+		thread = new Thread(this::writeBatches, "zuul-journal");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void connect(long playerId) {
+		reserve(1 + Long.BYTES).put((byte) CONNECT).putLong(playerId);
+	}
+
+	void line(long playerId, long frame, CharSequence line) {
+		int maxBytes = (int) Math.ceil(line.length() * (double) encoder.maxBytesPerChar());
+		ByteBuffer buffer = reserve(1 + 2 * Long.BYTES + Integer.BYTES + maxBytes);
+		buffer.put((byte) LINE).putLong(playerId).putLong(frame);
+		int lengthPosition = buffer.position();
+		buffer.position(lengthPosition + Integer.BYTES);
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(line), buffer, true);
+		encoder.flush(buffer);
+		buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+	}
+
+	void disconnect(long playerId) {
+		reserve(1 + Long.BYTES).put((byte) DISCONNECT).putLong(playerId);
+	}
+
+	void frame(long frame) {
+		reserve(1 + Long.BYTES).put((byte) FRAME).putLong(frame);
+	}
+
+	void random(long number) {
+		reserve(1 + Long.BYTES).put((byte) RANDOM).putLong(number);
+	}
+
+	/**
+	 * Ends the current segment, the records from now on go to the next one.
+	 *
+	 * @return number of the next segment
+	 */
+	long roll() {
+		flush();
+		segment++;
+		segmentSize = 0;
+		return segment;
+	}
+
+	/**
+	 * Hands the records appended so far to the journal thread. Waits if the journal thread is far behind.
+	 */
+	void flush() {
+		if (flushTimer != null) {
+			flushTimer.cancel();
+			flushTimer = null;
+		}
+		if (batch == null) {
+			return;
+		}
+		ByteBuffer records = batch;
+		batch = null;
+		records.flip();
+		if (segmentSize > 0 && segmentSize + records.remaining() > Config.JOURNAL_SEGMENT_BYTES) {
+			segment++;
+			segmentSize = 0;
+		}
+		segmentSize += FRAME_HEADER_SIZE + records.remaining();
+		try {
+			pending.put(new Batch(segment, records));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hands the records appended so far to the journal thread, waits until they are written and synced and stops the
+	 * thread. The journal can't be used anymore afterwards.
+	 *
+	 * @throws InterruptedException if interrupted while waiting, the records may not be synced then
+	 */
+	void close() throws InterruptedException {
+		flush();
+		pending.put(CLOSE);
+		thread.join();
+	}
+
+	/**
+	 * @return the current batch with room for a record of the given size
+	 */
+	private ByteBuffer reserve(int bytes) {
+		if (batch != null && batch.remaining() < bytes) {
+			flush();
+		}
+		if (batch == null) {
+			batch = freeBuffers.poll();
+			if (batch == null || batch.capacity() < bytes) {
+				batch = ByteBuffer.allocate(Math.max(BATCH_SIZE, bytes));
+			}
+			flushTimer = timers.schedule(this::flush, Config.JOURNAL_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return batch;
+	}
+
+	/**
+	 * The journal thread: writes the batches as they come and syncs after every group of them.
+	 */
+	private void writeBatches() {
+		List<Batch> batches = new ArrayList<>();
+		ByteBuffer[] frame = {ByteBuffer.allocate(FRAME_HEADER_SIZE), null};
+		CRC32 crc = new CRC32();
+		FileChannel channel = null;
+		long channelSegment = -1;
+		boolean failed = false;
+		while (true) {
+			try {
+				batches.add(pending.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			pending.drainTo(batches);
+			boolean closing = batches.remove(CLOSE);
+			try {
+				if (!failed && !batches.isEmpty()) {
+					for (Batch batch : batches) {
+						if (batch.segment != channelSegment) {
+							if (channel != null) {
+								channel.force(false);
+								channel.close();
+							}
+							channel = openSegment(batch.segment);
+							channelSegment = batch.segment;
+						}
+						crc.reset();
+						crc.update(batch.records.duplicate());
+						frame[0].clear();
+						frame[0].putInt(batch.records.remaining()).putInt((int) crc.getValue()).flip();
+						frame[1] = batch.records;
+						while (batch.records.hasRemaining()) {
+							channel.write(frame);
+						}
+					}
+					channel.force(false);
+				}
+			} catch (IOException e) {
+				// a gap would make the rest of the journal useless, the next snapshot is all there is
+				System.err.println("Writing the journal failed, it is disabled");
+				e.printStackTrace();
+				failed = true;
+			}
+			for (Batch batch : batches) {
+				batch.records.clear();
+				freeBuffers.offer(batch.records);
+			}
+			batches.clear();
+			if (closing) {
+				try {
+					if (channel != null) {
+						channel.close();
+					}
+				} catch (IOException e) {
+					// synced already
+				}
+				return;
+			}
+		}
+	}
+
+	private FileChannel openSegment(long number) throws IOException {
+		FileChannel channel = FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+		header.putInt(MAGIC).putLong(number).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		// make the new file itself durable, not every platform can sync a directory
+		try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			directoryChannel.force(true);
+		} catch (IOException e) {
+			// the segment is synced all the same
+		}
+		return channel;
+	}
+
+	/**
+	 * @param directory of the journal
+	 * @return the numbers of all segments in ascending order
+	 * @throws IOException if the directory can't be read
+	 */
+	static List<Long> segments(Path directory) throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Deletes the segments a snapshot made obsolete.
+	 *
+	 * @param directory of the journal
+	 * @param segment   the first segment to keep
+	 * @throws IOException if a segment can't be deleted
+	 */
+	static void deleteSegmentsBefore(Path directory, long segment) throws IOException {
+		for (long number : segments(directory)) {
+			if (number < segment) {
+				Files.delete(segmentPath(directory, number));
+			}
+		}
+	}
+
+	private static Path segmentPath(Path directory, long segment) {
+		return directory.resolve(String.format("%016d%s", segment, SUFFIX));
+	}
+
+	/**
+	 * Records of a segment on their way to the journal thread.
+	 */
+	private static final class Batch {
+		private final long segment;
+		private final ByteBuffer records;
+
+		Batch(long segment, ByteBuffer records) {
+			this.segment = segment;
+			this.records = records;
+		}
+	}
+
+	/**
+	 * Reads the records of a journal in the order they were written. The fields of a record are valid until the
+	 * next one is read.
+	 */
+	static final class Reader {
+		private final Path directory;
+		private final Iterator<Long> segments;
+		private final CRC32 crc = new CRC32();
+		private Path segmentPath;
+		private ByteBuffer segment;
+		private ByteBuffer batch;
+		private long playerId;
+		private long frame;
+		private String line;
+		private long number;
+
+		/**
+		 * @param directory    of the journal
+		 * @param firstSegment the first segment to read, earlier ones are skipped
+		 * @throws IOException if the directory can't be read
+		 */
+		Reader(Path directory, long firstSegment) throws IOException {
+			this.directory = directory;
+			List<Long> numbers = segments(directory);
+			numbers.removeIf(number -> number < firstSegment);
+			this.segments = numbers.iterator();
+		}
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @return its type or {@link #END}
+		 * @throws IOException if a segment can't be read or holds a record of an unknown type
+		 */
+		int next() throws IOException {
+			while (batch == null || !batch.hasRemaining()) {
+				if (!nextBatch()) {
+					return END;
+				}
+			}
+			int type = batch.get();
+			switch (type) {
+				case CONNECT:
+				case DISCONNECT:
+					playerId = batch.getLong();
+					break;
+				case LINE:
+					playerId = batch.getLong();
+					frame = batch.getLong();
+					byte[] bytes = new byte[batch.getInt()];
+					batch.get(bytes);
+					line = new String(bytes, StandardCharsets.UTF_8);
+					break;
+				case FRAME:
+					frame = batch.getLong();
+					break;
+				case RANDOM:
+					number = batch.getLong();
+					break;
+				default:
+					throw new IOException(segmentPath + " has a record of unknown type " + type);
+			}
+			return type;
+		}
+
+		/**
+		 * Reads a random number that was drawn next. For {@link GameRandom#setPlayback}, a replay that asks for a
+		 * number where none was drawn went off the tracks.
+		 *
+		 * @return the number
+		 * @throws UncheckedIOException if the next record is no random number or can't be read
+		 */
+		long nextRandom() {
+			try {
+				if (next() != RANDOM) {
+					throw new IOException(segmentPath + " has no random number where the replay needs one");
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return number;
+		}
+
+		long getPlayerId() {
+			return playerId;
+		}
+
+		long getFrame() {
+			return frame;
+		}
+
+		String getLine() {
+			return line;
+		}
+
+		/**
+		 * @return the segment the last record was read from
+		 */
+		Path getSegmentPath() {
+			return segmentPath;
+		}
+
+		private boolean nextBatch() throws IOException {
+			while (true) {
+				if (segment != null && segment.remaining() >= FRAME_HEADER_SIZE) {
+					int length = segment.getInt();
+					int checksum = segment.getInt();
+					if (length >= 0 && length <= segment.remaining()) {
+						ByteBuffer records = segment.slice();
+						records.limit(length);
+						crc.reset();
+						crc.update(records.duplicate());
+						if ((int) crc.getValue() == checksum) {
+							segment.position(segment.position() + length);
+							batch = records;
+							return true;
+						}
+					}
+				}
+				// the end of the segment, or where it was torn off
+				if (!segments.hasNext()) {
+					return false;
+				}
+				openSegment(segments.next());
+			}
+		}
+
+		private void openSegment(long number) throws IOException {
+			segmentPath = segmentPath(directory, number);
+			MappedByteBuffer mapped;
+			try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			if (mapped.remaining() < SEGMENT_HEADER_SIZE) {
+				// created right before a crash
+				segment = null;
+				return;
+			}
+			if (mapped.getInt() != MAGIC || mapped.getLong() != number) {
+				throw new IOException(segmentPath + " is no journal segment");
+			}
+			segment = mapped;
+		}
+	}
+}
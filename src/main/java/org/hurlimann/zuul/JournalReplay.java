@@ -0,0 +1,36 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a journal written by the server as fast as possible, a benchmark fed with what real players did.
+ * The world is configured with the same system properties as the server's, the snapshot the journal follows is
+ * restored first:
+ * <pre>
+ * java -Dzuul.worldLayout=maze -cp zuul.jar org.hurlimann.zuul.JournalReplay journal world.snap
+ * </pre>
+ * Neither the journal nor the snapshot is changed.
+ *
+ * @see Journal
+ */
+public class JournalReplay {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: JournalReplay <journal directory> [<snapshot>]");
+			System.exit(2);
+		}
+		Path directory = Paths.get(args[0]);
+
+		GameEngine engine = new GameEngine(Game.loadWorld());
+		long firstSegment = args.length == 2 ? engine.restoreSnapshot(Paths.get(args[1])) : 0;
+		long start = System.nanoTime();
+		long records = engine.replayJournal(directory, firstSegment);
+		long nanos = System.nanoTime() - start;
+
+		System.out.println("Replayed " + records + " records in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms ("
+				+ records * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos) + " records/s)");
+	}
+}
@@ -0,0 +1,124 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the byte stream of a connection into newline delimited lines.
+ * <p>
+ * A line may arrive split over several reads and one read may contain several lines. Bytes of an incomplete
+ * line are kept until the rest arrives. Lines longer than the configured maximum are discarded as a whole.
+ * <p>
+ * Lines are decoded as UTF-8 into a character buffer that is reused for every line, so decoding doesn't create
+ * any garbage.
+ */
+class LineDecoder {
+	/**
+	 * Receives the lines found by the decoder.
+	 */
+	interface Handler {
+		/**
+		 * @param line a complete line without its line terminator, only valid during the call
+		 * @return true to continue decoding, false to stop right away, the decoder won't touch the buffer again
+		 */
+		boolean onLine(CharSequence line) throws IOException;
+
+		/**
+		 * Called once for every line that exceeded the maximum line length.
+		 */
+		void onLineTooLong() throws IOException;
+	}
+
+	private final int maxLineLength;
+	// one byte more than the longest line, for the carriage return of a CRLF terminator
+	private final byte[] line;
+	private final ByteBuffer lineBytes;
+	private final CharBuffer lineChars;
+	private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private int length = 0;
+	private boolean discarding = false;
+
+	/**
+	 * @param maxLineLength longest accepted line in bytes, without the line terminator
+	 */
+	LineDecoder(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+		this.line = new byte[maxLineLength + 1];
+		this.lineBytes = ByteBuffer.wrap(line);
+		this.lineChars = CharBuffer.allocate(maxLineLength);
+	}
+
+	/**
+	 * Consumes all remaining bytes of the buffer and reports every completed line to the handler.
+	 * <p>
+	 * If the handler asks to stop the buffer is left as it is. The handler may have closed the connection and
+	 * handed the buffer to another one already.
+	 *
+	 * @param buffer  buffer in read mode
+	 * @param handler receiving the lines
+	 * @return false if the handler asked to stop, the rest of the input is to be discarded
+	 */
+	boolean decode(ByteBuffer buffer, Handler handler) throws IOException {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (b == '\n') {
+				if (discarding) {
+					discarding = false;
+					handler.onLineTooLong();
+				} else {
+					// the limit applies to the line without its terminator
+					int end = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+					length = 0;
+					if (end > maxLineLength) {
+						handler.onLineTooLong();
+					} else if (!handler.onLine(toChars(end))) {
+						return false;
+					}
+				}
+			} else if (!discarding) {
+				if (length == line.length) {
+					discarding = true;
+					length = 0;
+				} else {
+					line[length++] = b;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes the first bytes of the current line into the reused character buffer.
+	 *
+	 * @param end number of bytes to decode
+	 * @return the character buffer in read mode
+	 */
+	private CharBuffer toChars(int end) {
+		lineChars.clear();
+		boolean ascii = true;
+		for (int i = 0; i < end; i++) {
+			byte b = line[i];
+			if (b < 0) {
+				ascii = false;
+				break;
+			}
+			lineChars.put((char) b);
+		}
+		if (!ascii) {
+			// UTF-8 never needs more chars than bytes, so the buffer is large enough
+			lineChars.clear();
+			lineBytes.limit(end).position(0);
+			utf8.reset();
+			utf8.decode(lineBytes, lineChars, true);
+			utf8.flush(lineChars);
+		}
+		lineChars.flip();
+		return lineChars;
+	}
+}
@@ -0,0 +1,95 @@
+package org.hurlimann.zuul;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the output of a player as UTF-8 into a reused scratch buffer.
+ * <p>
+ * Text is appended line by line and taken out as one message, so everything a command prints ends up in a single
+ * buffer of exactly the right size. The encoder and its buffers live as long as the player.
+ */
+class MessageEncoder {
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer chars = CharBuffer.allocate(256);
+	private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+	/**
+	 * Appends text followed by a newline.
+	 *
+	 * @param text to append
+	 */
+	void appendLine(CharSequence text) {
+		append(text);
+		if (!chars.hasRemaining()) {
+			encode(false);
+		}
+		chars.put('\n');
+	}
+
+	/**
+	 * Appends text.
+	 *
+	 * @param text to append
+	 */
+	void append(CharSequence text) {
+		int start = 0;
+		int length = text.length();
+		while (start < length) {
+			int end = Math.min(length, start + chars.remaining());
+			if (text instanceof String) {
+				chars.put((String) text, start, end);
+			} else {
+				for (int i = start; i < end; i++) {
+					chars.put(text.charAt(i));
+				}
+			}
+			start = end;
+			if (!chars.hasRemaining()) {
+				encode(false);
+			}
+		}
+	}
+
+	/**
+	 * @return everything appended since the last call as one buffer in read mode, or null if nothing was appended
+	 */
+	ByteBuffer drain() {
+		encode(true);
+		while (encoder.flush(bytes).isOverflow()) {
+			grow();
+		}
+		encoder.reset();
+		if (bytes.position() == 0) {
+			return null;
+		}
+		bytes.flip();
+		ByteBuffer message = ByteBuffer.allocate(bytes.remaining());
+		message.put(bytes).flip();
+		bytes.clear();
+		return message;
+	}
+
+	/**
+	 * Encodes the pending characters. A surrogate pair cut in half stays in the buffer until the rest arrives.
+	 */
+	private void encode(boolean endOfInput) {
+		chars.flip();
+		while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+			grow();
+		}
+		chars.compact();
+	}
+
+	private void grow() {
+		ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+		bytes.flip();
+		larger.put(bytes);
+		bytes = larger;
+	}
+}
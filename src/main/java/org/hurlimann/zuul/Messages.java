@@ -0,0 +1,75 @@
+package org.hurlimann.zuul;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Texts that never change, encoded once at startup.
+ * The buffers are read only, send {@link ByteBuffer#duplicate() duplicates} of them.
+ */
+final class Messages {
+	private Messages() {
+	}
+
+	static final ByteBuffer WELCOME = encode(
+			"\n" +
+			"Welcome to the World of Zuul!\n" +
+			"World of Zuul is a new, incredibly boring adventure game.\n" +
+			"Type '" + CommandWord.HELP + "' if you need help.\n" +
+			"\n");
+
+	static final ByteBuffer HELP = encode(
+			"You are lost. You are alone. You wander\n" +
+			"around at the university.\n" +
+			"\n" +
+			"Your command words are:\n" +
+			CommandWords.getCommandsString() + "\n");
+
+	static final ByteBuffer UNKNOWN_COMMAND = encodeLine("I don't know what you mean...");
+	static final ByteBuffer LINE_TOO_LONG = encodeLine("That's way too long. Try something shorter.");
+	static final ByteBuffer IN_COMBAT = encodeLine("You can't leave. You're in combat.");
+	static final ByteBuffer GO_WHERE = encodeLine("Go where?");
+	static final ByteBuffer NO_DOOR = encodeLine("There is no door!");
+	static final ByteBuffer QUIT_WHAT = encodeLine("Quit what?");
+	static final ByteBuffer SAY_WHAT = encodeLine("Say what?");
+	static final ByteBuffer NAME_MISSING = encodeLine("Please provide a name.");
+	static final ByteBuffer NAME_TAKEN = encodeLine("That name is already taken.");
+	static final ByteBuffer PICKUP_WHAT = encodeLine("What item do you want to pick up?");
+	static final ByteBuffer NO_SUCH_ITEM = encodeLine("That item doesn't exist.");
+	static final ByteBuffer INVALID_NUMBER = encodeLine("That's not a valid number");
+	static final ByteBuffer ATTACK_WHO = encodeLine("Attack who?");
+	static final ByteBuffer ATTACK_SELF = encodeLine("Stop hitting yourself! Get help!");
+	static final ByteBuffer NO_SUCH_PLAYER = encodeLine("Specified player doesn't exist.");
+	static final ByteBuffer SERVER_FULL = encodeLine("The server is full. Please try again later.");
+	static final ByteBuffer TOO_MANY_CONNECTIONS = encodeLine("Too many connections from your address.");
+	static final ByteBuffer IDLE_TIMEOUT = encodeLine("You have been idle for too long. Goodbye.");
+
+	/**
+	 * @param text to encode
+	 * @return a read only direct buffer holding the UTF-8 encoded text
+	 */
+	static ByteBuffer encode(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Encodes a line that is sent once to several players, a chat message for example. Unlike the texts above it is
+	 * short lived, so it goes into a heap buffer: a direct one costs more to allocate and is only freed by the GC.
+	 *
+	 * @param line to encode, without line terminator
+	 * @return a read only heap buffer holding the UTF-8 encoded line and a newline
+	 */
+	static ByteBuffer encodeShared(String line) {
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 1);
+		buffer.put(bytes).put((byte) '\n').flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	private static ByteBuffer encodeLine(String line) {
+		return encode(line + "\n");
+	}
+}
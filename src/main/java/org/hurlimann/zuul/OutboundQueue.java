@@ -0,0 +1,118 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bounded queue of messages waiting to be written to a client.
+ * Not thread safe, the owning session guards it.
+ */
+class OutboundQueue {
+	private static final long SLOW_CONSUMER_TIMEOUT_NANOS =
+			TimeUnit.SECONDS.toNanos(Config.SLOW_CONSUMER_TIMEOUT_SECONDS);
+
+	private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+	private final ByteBuffer[] writeBatch = new ByteBuffer[Config.MAX_BUFFERS_PER_WRITE];
+	private int pendingBytes = 0;
+	private long stalledSince = 0;
+
+	/**
+	 * Queues a message unless that would exceed {@link Config#MAX_OUTBOUND_BYTES}.
+	 *
+	 * @param message buffer in read mode, owned by the queue afterwards
+	 * @return false if the message didn't fit
+	 */
+	boolean offer(ByteBuffer message) {
+		int size = message.remaining();
+		if (pendingBytes + size > Config.MAX_OUTBOUND_BYTES) {
+			return false;
+		}
+		if (pendingBytes == 0) {
+			stalledSince = System.nanoTime();
+		}
+		buffers.addLast(message);
+		pendingBytes += size;
+		return true;
+	}
+
+	boolean isEmpty() {
+		return buffers.isEmpty();
+	}
+
+	/**
+	 * Hands up to {@link Config#MAX_BUFFERS_PER_WRITE} queued buffers to the channel in one gathering write and
+	 * drops the ones that were written completely.
+	 *
+	 * @param channel to write to
+	 */
+	void writeTo(GatheringByteChannel channel) throws IOException {
+		if (buffers.isEmpty()) {
+			return;
+		}
+		int count = fillBatch(writeBatch);
+		long written;
+		try {
+			written = channel.write(writeBatch, 0, count);
+		} finally {
+			for (int i = 0; i < count; i++) {
+				writeBatch[i] = null;
+			}
+		}
+		written(written);
+	}
+
+	/**
+	 * Copies the head of the queue into a batch for a gathering write, without removing anything.
+	 * Only the tail of the queue changes when messages are offered, so the batch may be written without holding
+	 * the lock guarding the queue as long as {@link #written(long)} is called afterwards.
+	 *
+	 * @param batch to fill
+	 * @return number of buffers in the batch
+	 */
+	int fillBatch(ByteBuffer[] batch) {
+		int count = 0;
+		for (ByteBuffer buffer : buffers) {
+			if (count == batch.length) {
+				break;
+			}
+			batch[count++] = buffer;
+		}
+		return count;
+	}
+
+	/**
+	 * Accounts for bytes written from the head of the queue and drops the buffers that were written completely.
+	 *
+	 * @param written number of bytes
+	 */
+	void written(long written) {
+		if (written > 0) {
+			pendingBytes -= written;
+			stalledSince = System.nanoTime();
+			while (!buffers.isEmpty() && !buffers.peekFirst().hasRemaining()) {
+				buffers.pollFirst();
+			}
+		}
+	}
+
+	/**
+	 * @return true if there is pending output the client hasn't read any of for longer than
+	 * {@link Config#SLOW_CONSUMER_TIMEOUT_SECONDS}
+	 */
+	boolean isStalled(long now) {
+		return SLOW_CONSUMER_TIMEOUT_NANOS > 0 && pendingBytes > 0
+				&& now - stalledSince > SLOW_CONSUMER_TIMEOUT_NANOS;
+	}
+
+	/**
+	 * Discards all pending output.
+	 */
+	void clear() {
+		buffers.clear();
+		pendingBytes = 0;
+	}
+}
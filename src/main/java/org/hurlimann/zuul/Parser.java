@@ -1,54 +1,51 @@
 package org.hurlimann.zuul;
 
-import java.util.Scanner;
-
 /**
  * This class is part of the "World of Zuul" application. "World of Zuul" is a
  * very simple, text based adventure game.
  * <p>
  * This parser reads user input and tries to interpret it as an "Adventure"
- * command. Every time it is called it reads a line from the terminal and tries
+ * command. Every time it is called it takes a line sent by the player and tries
  * to interpret the line as a two-word command. It returns the command as an
  * object of class Command.
  * <p>
  * The parser has a set of known command words. It checks user input against the
  * known commands, and if the input is not one of the known commands, it returns
  * a command object that is marked as an unknown command.
+ * <p>
+ * The line is tokenized in place, no Strings are created while parsing. The
+ * parser reuses the command it returns, so each player has a parser of his own.
  *
  * @author Michael Kölling and David J. Barnes
  * @version 2011.08.10
  */
 class Parser {
-	private final String input;
+	private final Command command = new Command(CommandWord.UNKNOWN, null, null);
 
 	/**
-	 * Create a parser to read from the terminal window.
+	 * Interprets a line sent by the player.
+	 * The returned command and the line it refers to are only valid until the next call.
 	 *
-	 * @param input the string that the user entered
-	 */
-	public Parser(String input) {
-		this.input = input;
-	}
-
-	/**
-	 * @return The next command from the user null if there is none
+	 * @param input the line that the user entered
+	 * @return The command of the line
 	 */
-	public Command getCommand() {
-		String word1 = null;
-		String word2 = null;
-		String rest = null;
+	public Command getCommand(CharSequence input) {
+		int end = input.length();
 
 		// Find up to two words on the line.
-		try (Scanner tokenizer = new Scanner(input)) {
-			if (tokenizer.hasNext()) {
-				word1 = tokenizer.next(); // get first word
-				if (tokenizer.hasNext()) {
-					word2 = tokenizer.next(); // get second word
-					rest = tokenizer.nextLine();
-				}
-			}
-		}
+		int firstStart = CharSequences.skipWhitespace(input, 0, end);
+		int firstEnd = CharSequences.skipWord(input, firstStart, end);
+		int secondStart = CharSequences.skipWhitespace(input, firstEnd, end);
+		int secondEnd = CharSequences.skipWord(input, secondStart, end);
+		int restStart = CharSequences.skipWhitespace(input, secondEnd, end);
+		int restEnd = CharSequences.trimEnd(input, restStart, end);
 
-		return new Command(CommandWords.getCommandWord(word1), word2, rest);
+		CommandWord commandWord = CommandWords.getCommandWord(input, firstStart, firstEnd);
+		if (secondStart == secondEnd) {
+			command.reset(commandWord, input, -1, -1, -1, -1);
+		} else {
+			command.reset(commandWord, input, secondStart, secondEnd, restStart, restEnd);
+		}
+		return command;
 	}
 }
@@ -1,24 +1,24 @@
 package org.hurlimann.zuul;
 
-import java.io.IOException;
-import java.nio.CharBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.ToIntFunction;
 
 /**
  * Class representing players in the game.
  * Handles input and output with a particular player and interactions with other players
  */
 public class Player implements HasStats {
+	private final long id;
+	private final World world;
 	private String name;
 	private Room room;
-	private final SocketChannel socketChannel;
+	private final Session session;
 
+	private final Parser parser = new Parser();
+	private final MessageEncoder output = new MessageEncoder();
 	private List<Item> items = new ArrayList<>();
 
 	private int hitPoints = 100;
@@ -27,41 +27,74 @@ public class Player implements HasStats {
 	private int baseAgility;
 	private boolean toDelete = false;
 
-	public Player(String name, Room room, SocketChannel socketChannel) {
+	// stats including the items, kept up to date whenever the inventory changes
+	private int effectiveAttack;
+	private int effectiveDefense;
+	private int effectiveAgility;
+
+	/**
+	 * @param id      unique and stable identifier of the player
+	 * @param name    initial name of the player
+	 * @param world   the player lives in
+	 * @param room    the player starts in
+	 * @param session to send the player's output to
+	 */
+	public Player(long id, String name, World world, Room room, Session session) {
+		this.id = id;
+		this.world = world;
 		this.name = name;
 		this.room = room;
-		this.socketChannel = socketChannel;
+		this.session = session;
+		recalculateStats();
 	}
 
 	/**
-	 * Sends a message to a particular player
+	 * Adds a line to the output for a particular player.
+	 * The output is sent once the current command is done, see {@link #flushOutput()}.
 	 *
 	 * @param message to send to the player
-	 * @throws IOException
 	 */
-	private void writeToSocketChannel(String message) throws IOException {
-		CharsetEncoder enc = Charset.defaultCharset().newEncoder();
-		socketChannel.write(enc.encode(CharBuffer.wrap(message + "\n")));
+	private void print(String message) {
+		output.appendLine(message);
+	}
+
+	/**
+	 * Sends a pre-encoded message to a particular player without copying it.
+	 * Output added before is sent first.
+	 *
+	 * @param message one of the {@link Messages} or another read only buffer
+	 */
+	private void print(ByteBuffer message) {
+		flushOutput();
+		session.send(message.duplicate());
 	}
 
 	/**
-	 * Sends a newline to a player
-	 * @throws IOException
+	 * Sends a message that is shared with other players, for example a broadcast in the room.
+	 *
+	 * @param message read only buffer, the player gets a view of it
 	 */
-	private void writeToSocketChannel() throws IOException {
-		writeToSocketChannel("");
+	void deliver(ByteBuffer message) {
+		print(message);
+	}
+
+	/**
+	 * Sends everything added to the output of the player as one message.
+	 */
+	private void flushOutput() {
+		ByteBuffer message = output.drain();
+		if (message != null) {
+			session.send(message);
+		}
 	}
 
 	/**
 	 * Print out the opening message for the player.
 	 */
-	public void printWelcome() throws IOException {
-		writeToSocketChannel();
-		writeToSocketChannel("Welcome to the World of Zuul!");
-		writeToSocketChannel("World of Zuul is a new, incredibly boring adventure game.");
-		writeToSocketChannel("Type '" + CommandWord.HELP + "' if you need help.");
-		writeToSocketChannel();
-		writeToSocketChannel(room.getLongDescription());
+	public void printWelcome() {
+		print(Messages.WELCOME);
+		print(room.getEncodedLongDescription());
+		flushOutput();
 	}
 
 	/**
@@ -70,7 +103,7 @@ public class Player implements HasStats {
 	 * @param command The command to be processed.
 	 * @return true If the command ends the game, false otherwise.
 	 */
-	private boolean processCommand(Command command) throws IOException {
+	private boolean processCommand(Command command) {
 		boolean wantToQuit;
 		wantToQuit = false;
 
@@ -78,7 +111,7 @@ public class Player implements HasStats {
 
 		switch (commandWord) {
 			case UNKNOWN:
-				writeToSocketChannel("I don't know what you mean...");
+				print(Messages.UNKNOWN_COMMAND);
 				break;
 
 			case HELP:
@@ -87,7 +120,7 @@ public class Player implements HasStats {
 
 			case GO:
 				if (isInCombat()) {
-					writeToSocketChannel("You can't leave. You're in combat.");
+					print(Messages.IN_COMBAT);
 				} else {
 					goRoom(command);
 				}
@@ -99,10 +132,11 @@ public class Player implements HasStats {
 			case SETNAME:
 				String newName = command.getSecondWord();
 				if (newName == null || newName.isEmpty()) {
-					writeToSocketChannel("Please provide a name.");
+					print(Messages.NAME_MISSING);
+				} else if (world.getPlayers().rename(this, newName)) {
+					print("Hi " + newName + "!");
 				} else {
-					this.name = newName;
-					writeToSocketChannel("Hi " + newName + "!");
+					print(Messages.NAME_TAKEN);
 				}
 				break;
 			case LOOK:
@@ -112,27 +146,32 @@ public class Player implements HasStats {
 				handleAttack(command);
 				break;
 			case SAY:
-				String sentence = command.getSecondWord() + " " + command.getRest();
-				String message = this.getName() + ": " + sentence;
-				room.getPlayers().forEach(p -> p.tell(message));
+				if (!command.hasSecondWord()) {
+					print(Messages.SAY_WHAT);
+					break;
+				}
+				String sentence = command.getRest().isEmpty()
+						? command.getSecondWord()
+						: command.getSecondWord() + " " + command.getRest();
+				room.broadcast(this.getName() + ": " + sentence, null);
 				break;
 			case PICKUP:
 				String itemIdStr = command.getSecondWord();
 				if (itemIdStr == null || itemIdStr.isEmpty()) {
-					writeToSocketChannel("What item do you want to pick up?");
+					print(Messages.PICKUP_WHAT);
 				} else {
 					try {
 						int itemId = Integer.parseInt(itemIdStr);
 						Optional<Item> itemOptional = room.pickUpItem(itemId);
 						if (itemOptional.isPresent()) {
 							Item item = itemOptional.get();
-							items.add(item);
-							writeToSocketChannel("Congratulations on your brand new " + item.getName());
+							addItem(item);
+							print("Congratulations on your brand new " + item.getName());
 						} else {
-							writeToSocketChannel("That item doesn't exist.");
+							print(Messages.NO_SUCH_ITEM);
 						}
 					} catch (NumberFormatException ex) {
-						writeToSocketChannel("That's not a valid number");
+						print(Messages.INVALID_NUMBER);
 					}
 				}
 				break;
@@ -141,32 +180,27 @@ public class Player implements HasStats {
 	}
 
 	/**
-	 * Sends a message to a player
-	 * use this method if you don't mind if it fails.
+	 * Sends a message to a player right away, outside of the player's own commands.
 	 * @param message
 	 */
 	private void tell(String message) {
-		try {
-			writeToSocketChannel(message);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		print(message);
+		flushOutput();
 	}
 
 	/**
 	 * Handles an attack on another player.
 	 * Either triggers an attack if a player is already in combat or creates a new combat.
 	 * @param command
-	 * @throws IOException
 	 */
-	private void handleAttack(Command command) throws IOException {
+	private void handleAttack(Command command) {
 		if (isInCombat()) {
 			Optional<Player> otherPlayerOptional = room.getCombatingPlayer(this);
 			if (otherPlayerOptional.isPresent()) {
 				Player otherPlayer = otherPlayerOptional.get();
 				otherPlayer.takeHit(this.getEffectiveAttack());
 				int otherPlayerHP = otherPlayer.getHitPoints();
-				writeToSocketChannel("Hit " + otherPlayer.getName() + ".\n" +
+				print("Hit " + otherPlayer.getName() + ".\n" +
 						otherPlayerHP + " HP remaining!");
 			}
 		} else {
@@ -177,26 +211,23 @@ public class Player implements HasStats {
 	/**
 	 * Creates a new combat with another player
 	 * @param command
-	 * @throws IOException
 	 */
-	private void initiateCombat(Command command) throws IOException {
+	private void initiateCombat(Command command) {
 		String otherPlayerName = command.getSecondWord();
 		if (otherPlayerName == null || otherPlayerName.isEmpty()) {
-			writeToSocketChannel("Attack who?");
+			print(Messages.ATTACK_WHO);
 		} else if (this.getName().equals(otherPlayerName)) {
-			writeToSocketChannel("Stop hitting yourself! Get help!");
+			print(Messages.ATTACK_SELF);
 		} else {
-			Optional<Player> optionalPlayerToAttack = room.getPlayers()
-					.stream()
-					.filter(p -> p.getName().equals(otherPlayerName))
-					.findFirst();
-			if (optionalPlayerToAttack.isPresent()) {
-				Player playerToAttack = optionalPlayerToAttack.get();
+			Player playerToAttack = world.getPlayers().byName(otherPlayerName);
+			if (playerToAttack == null || playerToAttack.getRoom() != room || playerToAttack.isToDelete()) {
+				print(Messages.NO_SUCH_PLAYER);
+			} else if (playerToAttack.isInCombat()) {
+				print(otherPlayerName + " is already fighting someone else.");
+			} else {
 				room.addCombat(new Combat(this, playerToAttack));
-				writeToSocketChannel("Successfully attacked " + otherPlayerName + "!");
+				print("Successfully attacked " + otherPlayerName + "!");
 				playerToAttack.tell("You've been attacked by " + this.getName());
-			} else {
-				writeToSocketChannel("Specified player doesn't exist.");
 			}
 		}
 	}
@@ -205,22 +236,22 @@ public class Player implements HasStats {
 	 * @return wheter or not a player is in combat
 	 */
 	public boolean isInCombat() {
-		return room.getPlayersInCombat().stream().anyMatch(this::equals);
+		return room.isInCombat(this);
 	}
 
 	/**
 	 * Print out what items and players are in the room
 	 */
-	private void printRoomContents() throws IOException {
-		writeToSocketChannel("These are the contents of the room.");
-		writeToSocketChannel("Players:");
+	private void printRoomContents() {
+		print("These are the contents of the room.");
+		print("Players:");
 		for (Player player : room.getPlayers()) {
-			writeToSocketChannel(player.toString());
+			print(player.toString());
 		}
-		writeToSocketChannel();
-		writeToSocketChannel("Items:");
+		print("");
+		print("Items:");
 		for (Item item : room.getItems()) {
-			writeToSocketChannel(item.toString());
+			print(item.toString());
 		}
 	}
 
@@ -228,22 +259,18 @@ public class Player implements HasStats {
 	 * Print out some help information. Here we print some stupid, cryptic
 	 * message and a list of the command words.
 	 */
-	private void printHelp() throws IOException {
-		writeToSocketChannel("You are lost. You are alone. You wander");
-		writeToSocketChannel("around at the university.");
-		writeToSocketChannel();
-		writeToSocketChannel("Your command words are:");
-		writeToSocketChannel(CommandWords.getCommandsString());
+	private void printHelp() {
+		print(Messages.HELP);
 	}
 
 	/**
 	 * Try to go in one direction. If there is an exit, enter the new room,
 	 * otherwise print an error message.
 	 */
-	private void goRoom(Command command) throws IOException {
+	private void goRoom(Command command) {
 		if (!command.hasSecondWord()) {
 			// if there is no second word, we don't know where to go...
-			writeToSocketChannel("Go where?");
+			print(Messages.GO_WHERE);
 			return;
 		}
 
@@ -253,12 +280,12 @@ public class Player implements HasStats {
 		Room nextRoom = room.getExit(direction);
 
 		if (nextRoom == null) {
-			writeToSocketChannel("There is no door!");
+			print(Messages.NO_DOOR);
 		} else {
 			room.removePlayer(this);
 			nextRoom.addPlayer(this);
 			room = nextRoom;
-			writeToSocketChannel(room.getLongDescription());
+			print(room.getEncodedLongDescription());
 		}
 	}
 
@@ -268,25 +295,52 @@ public class Player implements HasStats {
 	 *
 	 * @return true, if this command quits the game, false otherwise.
 	 */
-	private boolean quit(Command command) throws IOException {
+	private boolean quit(Command command) {
 		if (command.hasSecondWord()) {
-			writeToSocketChannel("Quit what?");
+			print(Messages.QUIT_WHAT);
 			return false;
 		} else {
 			return true; // signal that we want to quit
 		}
 	}
 
-	public boolean handleInput(final String input) throws IOException {
-		Parser parser = new Parser(input);
-		Command command = parser.getCommand();
-		return processCommand(command);
+	/**
+	 * Parses and executes a line sent by the player.
+	 *
+	 * @param input the line, only needs to be valid during the call
+	 * @return true if the player wants to quit
+	 */
+	public boolean handleInput(final CharSequence input) {
+		Command command = parser.getCommand(input);
+		try {
+			return processCommand(command);
+		} finally {
+			flushOutput();
+		}
+	}
+
+	/**
+	 * Tells the player that the line they sent was too long to be processed.
+	 */
+	public void handleLineTooLong() {
+		print(Messages.LINE_TOO_LONG);
+	}
+
+	public long getId() {
+		return id;
 	}
 
 	public String getName() {
 		return name;
 	}
 
+	/**
+	 * Only to be used by the {@link PlayerRegistry}, which keeps names unique.
+	 */
+	void setName(String name) {
+		this.name = name;
+	}
+
 	public Room getRoom() {
 		return room;
 	}
@@ -295,6 +349,13 @@ public class Player implements HasStats {
 		return hitPoints;
 	}
 
+	/**
+	 * @return an unmodifiable list of the items the player owns
+	 */
+	List<Item> getItems() {
+		return Collections.unmodifiableList(items);
+	}
+
 	/**
 	 * Calculates and applies damage taken from an attack
 	 * inspired by Dota 2 (http://dota2.gamepedia.com/Armor#Damage_multiplier)
@@ -313,34 +374,72 @@ public class Player implements HasStats {
 	}
 
 	/**
-	 * @param getter stat of the Player and item that needs to be calculated
-	 * @return calculated stat
+	 * Adds an item to the inventory and accounts for its stats.
+	 *
+	 * @param item to add
+	 */
+	private void addItem(Item item) {
+		items.add(item);
+		effectiveAttack += item.getAttack();
+		effectiveDefense += item.getDefense();
+		effectiveAgility += item.getAgility();
+	}
+
+	/**
+	 * Brings back the state of a player saved in a {@link WorldSnapshot}.
+	 *
+	 * @param hitPoints left
+	 * @param attack    base attack
+	 * @param defense   base defense
+	 * @param agility   base agility
+	 * @param items     the player owned
+	 */
+	void restore(int hitPoints, int attack, int defense, int agility, List<Item> items) {
+		this.hitPoints = hitPoints;
+		this.baseAttack = attack;
+		this.baseDefense = defense;
+		this.baseAgility = agility;
+		this.items = new ArrayList<>(items);
+		recalculateStats();
+	}
+
+	/**
+	 * Recalculates the effective stats from scratch. Needs to be called whenever the inventory changes in a way
+	 * other than {@link #addItem(Item)}.
 	 */
-	private int getStat(ToIntFunction<HasStats> getter) {
-		return items.stream()
-				.mapToInt(getter)
-				.reduce(getter.applyAsInt(this), (acc, x) -> acc + x);
+	private void recalculateStats() {
+		int attack = getAttack();
+		int defense = getDefense();
+		int agility = getAgility();
+		for (Item item : items) {
+			attack += item.getAttack();
+			defense += item.getDefense();
+			agility += item.getAgility();
+		}
+		effectiveAttack = attack;
+		effectiveDefense = defense;
+		effectiveAgility = agility;
 	}
 
 	/**
 	 * @return attack accounting for items the player owns
 	 */
 	public int getEffectiveAttack() {
-		return getStat(HasStats::getAttack);
+		return effectiveAttack;
 	}
 
 	/**
 	 * @return defense accounting for items the player owns
 	 */
 	public int getEffectiveDefense() {
-		return getStat(HasStats::getDefense);
+		return effectiveDefense;
 	}
 
 	/**
 	 * @return agility accounting for items the player owns
 	 */
 	public int getEffectiveAgility() {
-		return getStat(HasStats::getAgility);
+		return effectiveAgility;
 	}
 
 	/**
@@ -368,7 +467,7 @@ public class Player implements HasStats {
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Players are equal if they have the same id.
 	 */
 	@Override
 	public boolean equals(Object o) {
@@ -377,14 +476,7 @@ public class Player implements HasStats {
 
 		Player player = (Player) o;
 
-		if (baseAttack != player.baseAttack) return false;
-		if (baseDefense != player.baseDefense) return false;
-		if (baseAgility != player.baseAgility) return false;
-		if (name != null ? !name.equals(player.name) : player.name != null) return false;
-		if (room != null ? !room.equals(player.room) : player.room != null) return false;
-		if (socketChannel != null ? !socketChannel.equals(player.socketChannel) : player.socketChannel != null)
-			return false;
-		return items != null ? items.equals(player.items) : player.items == null;
+		return id == player.id;
 	}
 
 	/**
@@ -392,14 +484,7 @@ public class Player implements HasStats {
 	 */
 	@Override
 	public int hashCode() {
-		int result = name != null ? name.hashCode() : 0;
-		result = 31 * result + (room != null ? room.hashCode() : 0);
-		result = 31 * result + (socketChannel != null ? socketChannel.hashCode() : 0);
-		result = 31 * result + (items != null ? items.hashCode() : 0);
-		result = 31 * result + baseAttack;
-		result = 31 * result + baseDefense;
-		result = 31 * result + baseAgility;
-		return result;
+		return Long.hashCode(id);
 	}
 
 	@Override
@@ -416,4 +501,11 @@ public class Player implements HasStats {
 	public boolean isToDelete() {
 		return toDelete;
 	}
+
+	/**
+	 * Slates a player whose connection is gone for removal from the world.
+	 */
+	void disconnect() {
+		this.toDelete = true;
+	}
 }
@@ -0,0 +1,106 @@
+package org.hurlimann.zuul;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All players currently in the world, indexed by their id and by their name.
+ * Names are unique.
+ */
+class PlayerRegistry {
+	private final Map<Long, Player> playersById = new HashMap<>();
+	private final Map<String, Player> playersByName = new HashMap<>();
+	private long nextId = 1;
+
+	/**
+	 * @return an id no player got so far
+	 */
+	long nextId() {
+		return nextId++;
+	}
+
+	/**
+	 * @return the id the next player gets
+	 */
+	long getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * Continues the ids where a {@link WorldSnapshot} left off.
+	 *
+	 * @param nextId the id the next player gets
+	 */
+	void setNextId(long nextId) {
+		this.nextId = nextId;
+	}
+
+	/**
+	 * Adds a player to the registry.
+	 *
+	 * @param player to add
+	 * @return false if the name of the player is already taken, in which case the player isn't added
+	 */
+	boolean register(Player player) {
+		if (playersByName.containsKey(player.getName())) {
+			return false;
+		}
+		playersById.put(player.getId(), player);
+		playersByName.put(player.getName(), player);
+		return true;
+	}
+
+	/**
+	 * Removes a player from the registry.
+	 *
+	 * @param player to remove
+	 */
+	void unregister(Player player) {
+		if (playersById.remove(player.getId()) != null) {
+			playersByName.remove(player.getName());
+		}
+	}
+
+	/**
+	 * Changes the name of a registered player.
+	 *
+	 * @param player  to rename
+	 * @param newName of the player
+	 * @return false if the name is taken by another player
+	 */
+	boolean rename(Player player, String newName) {
+		Player owner = playersByName.get(newName);
+		if (owner != null) {
+			return owner == player;
+		}
+		playersByName.remove(player.getName());
+		player.setName(newName);
+		playersByName.put(newName, player);
+		return true;
+	}
+
+	/**
+	 * @param id of the player
+	 * @return the player or null if there is none with this id
+	 */
+	Player byId(long id) {
+		return playersById.get(id);
+	}
+
+	/**
+	 * @param name of the player
+	 * @return the player or null if there is none with this name
+	 */
+	Player byName(String name) {
+		return playersByName.get(name);
+	}
+
+	/**
+	 * @return an unmodifiable view of all registered players
+	 */
+	Collection<Player> getPlayers() {
+		return Collections.unmodifiableCollection(playersById.values());
+	}
+}
@@ -1,6 +1,5 @@
 package org.hurlimann.zuul;
 
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
 /**
@@ -50,13 +49,29 @@ class RandomItemGenerator {
 							.map(p -> String.format("%s of the %s", s, p)))
 					.toArray(String[]::new);
 
+	/**
+	 * @return id of the next item generated
+	 */
+	static int getNextItemId() {
+		return nextItemId;
+	}
+
+	/**
+	 * Continues the item ids where a {@link WorldSnapshot} left off.
+	 *
+	 * @param itemId id of the next item generated
+	 */
+	static void setNextItemId(int itemId) {
+		nextItemId = itemId;
+	}
+
 	/**
 	 * Generates an item with completely random stats.
+	 * @param random to roll the stats with
 	 * @return generated item
 	 */
-	static Item generate() {
-		ThreadLocalRandom random = ThreadLocalRandom.current();
-		int nameIndex = random.nextInt(0, itemNames.length);
+	static Item generate(GameRandom random) {
+		int nameIndex = random.nextInt(itemNames.length);
 		String name = itemNames[nameIndex];
 		int attack = random.nextInt(10, 100);
 		int defense = random.nextInt(10, 100);
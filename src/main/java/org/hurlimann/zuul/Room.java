@@ -1,9 +1,7 @@
 package org.hurlimann.zuul;
 
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Class Room - a room in an adventure game.
@@ -14,19 +12,53 @@ import java.util.stream.Stream;
  * A "Room" represents one location in the scenery of the game. It is connected
  * to other rooms via exits. For each existing exit, the room stores a reference
  * to the neighboring room.
+ * <p>
+ * The long description only changes with the exits, so it is built and
+ * encoded once and kept until an exit changes.
+ * <p>
+ * A room of a {@link CompactWorld} has no exits of its own, it looks them up
+ * in the compact tables by its id. Items, players and combats are only
+ * allocated once a room gets some.
+ * <p>
+ * A room with players or combats in it is active, only active rooms are
+ * updated every frame. The room tells its world whenever that changes.
+ * <p>
+ * A {@link WorldSnapshot} takes the item list of the room as it is. The
+ * room copies the list before it changes it the next time, so taking a
+ * snapshot never copies the items of rooms that don't change. Before the
+ * items change the room lets a snapshot that is being captured collect them.
  *
  * @author Michael Kölling and David J. Barnes
  * @version 2011.08.10
  */
 
 public class Room {
-	private static final int ITEM_SPAWN_CHANCE = 5;
+	/**
+	 * Default item spawn chance per frame in tenths of a percent
+	 */
+	static final int ITEM_SPAWN_CHANCE = 5;
 
 	private final String description;
-	private final Map<Direction, Room> exits;
+	// indexed by the ordinal of the direction, null if the exits are in the compact world
+	private final Room[] exits;
+	private String longDescription;
+	private ByteBuffer encodedLongDescription;
+	// the collections are null until the room gets something to put in them
 	private List<Item> items;
-	private List<Player> players = new ArrayList<>();
-	private List<Combat> combats = new ArrayList<>();
+	// the items belong to a snapshot, copy them before changing them
+	private boolean itemsShared = false;
+	// number of the last snapshot capture that collected the items
+	private int snapshotEpoch = 0;
+	private List<Player> players;
+	private List<Combat> combats;
+	// every player fighting in this room mapped to his combat
+	private Map<Player, Combat> combatsByPlayer;
+	private World world;
+	private int id = -1;
+	// position in the active rooms of the world, -1 while the room is dormant
+	private int activeIndex = -1;
+	private int maxItemCount = Integer.MAX_VALUE;
+	private int spawnChance = ITEM_SPAWN_CHANCE;
 
 	/**
 	 * Create a room described "description". Initially, it has no exits.
@@ -36,8 +68,21 @@ public class Room {
 	 */
 	public Room(String description) {
 		this.description = description;
-		exits = new HashMap<>();
-		items = new ArrayList<>();
+		this.exits = new Room[Direction.VALUES.length];
+	}
+
+	/**
+	 * Creates a room of a compact world.
+	 *
+	 * @param world       backed by the compact world
+	 * @param id          of the room in the compact world
+	 * @param description interned description of the room
+	 */
+	Room(World world, int id, String description) {
+		this.description = description;
+		this.exits = null;
+		this.world = world;
+		this.id = id;
 	}
 
 	/**
@@ -47,7 +92,12 @@ public class Room {
 	 * @param neighbor  The room to which the exit leads.
 	 */
 	public void setExit(Direction direction, Room neighbor) {
-		exits.put(direction, neighbor);
+		if (exits == null) {
+			throw new IllegalStateException("The exits of a compact world can't be changed");
+		}
+		exits[direction.ordinal()] = neighbor;
+		longDescription = null;
+		encodedLongDescription = null;
 	}
 
 	/**
@@ -65,19 +115,37 @@ public class Room {
 	 * @return A long description of this room
 	 */
 	public String getLongDescription() {
-		return "You are " + description + ".\n" + getExitString();
+		if (longDescription == null) {
+			longDescription = "You are " + description + ".\n" + getExitString();
+		}
+		return longDescription;
+	}
+
+	/**
+	 * @return The long description of this room followed by a newline,
+	 * encoded in a read only buffer.
+	 */
+	public ByteBuffer getEncodedLongDescription() {
+		if (encodedLongDescription == null) {
+			encodedLongDescription = Messages.encode(getLongDescription() + "\n");
+		}
+		return encodedLongDescription;
 	}
 
 	/**
 	 * Return a string describing the room's exits, for example "Exits: north
-	 * west".
+	 * west". The exits are listed in the order of {@link Direction}.
 	 *
 	 * @return Details of the room's exits.
 	 */
 	private String getExitString() {
-		return Stream.concat(Stream.of("Exits:"), exits.keySet().stream()
-				.map(Direction::toString))
-				.collect(Collectors.joining(" "));
+		StringBuilder exitString = new StringBuilder("Exits:");
+		for (Direction direction : Direction.VALUES) {
+			if (exits == null ? world.hasExit(id, direction) : exits[direction.ordinal()] != null) {
+				exitString.append(' ').append(direction);
+			}
+		}
+		return exitString.toString();
 	}
 
 	/**
@@ -88,7 +156,65 @@ public class Room {
 	 * @return The room in the given direction.
 	 */
 	public Room getExit(Direction direction) {
-		return exits.get(direction);
+		if (direction == null) {
+			return null;
+		}
+		return exits == null ? world.getExit(id, direction) : exits[direction.ordinal()];
+	}
+
+	/**
+	 * Sets the world the room belongs to, it gets notified about every item that appears or disappears.
+	 *
+	 * @param world of the room
+	 * @param id    of the room in the world
+	 */
+	void setWorld(World world, int id) {
+		this.world = world;
+		this.id = id;
+	}
+
+	/**
+	 * @return id of the room in its world, -1 if it doesn't belong to one
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return number of items lying around in this room
+	 */
+	public int getItemCount() {
+		return items == null ? 0 : items.size();
+	}
+
+	/**
+	 * Limits the number of items that may spawn in this room. Unlimited by default.
+	 *
+	 * @param maxItemCount maximum number of items
+	 */
+	public void setMaxItemCount(int maxItemCount) {
+		this.maxItemCount = maxItemCount;
+	}
+
+	/**
+	 * @return most items that may spawn in this room
+	 */
+	public int getMaxItemCount() {
+		return maxItemCount;
+	}
+
+	/**
+	 * @param spawnChance chance in tenths of a percent that an item spawns in this room each frame
+	 */
+	public void setSpawnChance(int spawnChance) {
+		this.spawnChance = spawnChance;
+	}
+
+	/**
+	 * @return chance in tenths of a percent that an item spawns in this room each frame
+	 */
+	public int getSpawnChance() {
+		return spawnChance;
 	}
 
 	/**
@@ -97,37 +223,116 @@ public class Room {
 	 * @return unmodifiable list of items
 	 */
 	public List<Item> getItems() {
-		return Collections.unmodifiableList(items);
+		return items == null ? Collections.emptyList() : Collections.unmodifiableList(items);
 	}
 
 	void updateRoom() {
 		handlePlayersToRemove();
-		spawnItemsIfNecessary();
+		activityChanged();
+	}
+
+	/**
+	 * @return whether the room has to be updated every frame
+	 */
+	boolean isActive() {
+		return (players != null && !players.isEmpty()) || (combats != null && !combats.isEmpty());
+	}
+
+	int getSnapshotEpoch() {
+		return snapshotEpoch;
+	}
+
+	void setSnapshotEpoch(int snapshotEpoch) {
+		this.snapshotEpoch = snapshotEpoch;
+	}
+
+	int getActiveIndex() {
+		return activeIndex;
+	}
+
+	void setActiveIndex(int activeIndex) {
+		this.activeIndex = activeIndex;
+	}
+
+	private void activityChanged() {
+		if (world != null && isActive() != (activeIndex >= 0)) {
+			world.activityChanged(this);
+		}
 	}
 
 	/**
 	 * Removes players that are killed.
 	 */
 	private void handlePlayersToRemove() {
-		players.removeIf(Player::isToDelete);
-		combats.removeIf(c -> c.getPlayer1().isToDelete() || c.getPlayer2().isToDelete());
+		if (players != null) {
+			players.removeIf(Player::isToDelete);
+		}
+		if (combats == null) {
+			return;
+		}
+		combats.removeIf(c -> {
+			if (c.getPlayer1().isToDelete() || c.getPlayer2().isToDelete()) {
+				combatsByPlayer.remove(c.getPlayer1());
+				combatsByPlayer.remove(c.getPlayer2());
+				return true;
+			}
+			return false;
+		});
+	}
+
+	/**
+	 * Puts a new random item into the room. The room must belong to a world.
+	 */
+	void spawnItem() {
+		addItem(RandomItemGenerator.generate(world.getRandom()));
+	}
+
+	/**
+	 * Puts an item into the room.
+	 *
+	 * @param item to add
+	 */
+	void addItem(Item item) {
+		ownItems().add(item);
+		if (world != null) {
+			world.itemAdded();
+		}
+	}
+
+	/**
+	 * Hands out the items for a snapshot. The list doesn't change anymore, the room changes a copy of it from now on.
+	 *
+	 * @return the items of the room, null if there are none
+	 */
+	List<Item> shareItems() {
+		if (items == null || items.isEmpty()) {
+			return null;
+		}
+		itemsShared = true;
+		return items;
 	}
 
 	/**
-	 * Randomly spawns items or not.
+	 * @return the item list of the room that may be changed
 	 */
-	private void spawnItemsIfNecessary() {
-		int random = ThreadLocalRandom.current().nextInt(0, 1000);
-		if (random < ITEM_SPAWN_CHANCE) {
-			this.items.add(RandomItemGenerator.generate());
+	private List<Item> ownItems() {
+		if (world != null) {
+			world.itemsChanging(this);
+		}
+		if (items == null) {
+			items = new ArrayList<>();
+		} else if (itemsShared) {
+			items = new ArrayList<>(items);
+			itemsShared = false;
 		}
+		return items;
 	}
 
 	/**
 	 * @return an unmodifiable list of players in this room
 	 */
 	public List<Player> getPlayers() {
-		return Collections.unmodifiableList(players);
+		return players == null ? Collections.emptyList() : Collections.unmodifiableList(players);
 	}
 
 
@@ -136,18 +341,39 @@ public class Room {
 	 * @param combat
 	 */
 	public void addCombat(Combat combat) {
+		if (combats == null) {
+			combats = new ArrayList<>();
+			combatsByPlayer = new IdentityHashMap<>();
+		}
 		combats.add(combat);
+		combatsByPlayer.put(combat.getPlayer1(), combat);
+		combatsByPlayer.put(combat.getPlayer2(), combat);
+		activityChanged();
+	}
+
+	/**
+	 * @return an unmodifiable list of the combats in this room
+	 */
+	List<Combat> getCombats() {
+		return combats == null ? Collections.emptyList() : Collections.unmodifiableList(combats);
 	}
 
 	/**
 	 * @return an unmodifiable list of players that are currently engaged in combat.
 	 */
 	public List<Player> getPlayersInCombat() {
-		return Collections.unmodifiableList(
-				combats.stream()
-						.flatMap(c -> Stream.of(c.getPlayers()))
-						.distinct()
-						.collect(Collectors.toList()));
+		if (combatsByPlayer == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(new ArrayList<>(combatsByPlayer.keySet()));
+	}
+
+	/**
+	 * @param player to check
+	 * @return whether or not the player is fighting in this room
+	 */
+	public boolean isInCombat(Player player) {
+		return combatsByPlayer != null && combatsByPlayer.containsKey(player);
 	}
 
 	/**
@@ -155,7 +381,29 @@ public class Room {
 	 * @param player
 	 */
 	public void removePlayer(Player player) {
-		players.remove(player);
+		if (players != null) {
+			players.remove(player);
+			activityChanged();
+		}
+	}
+
+	/**
+	 * Sends a line to every player in the room. The line is encoded once and every player gets a read only view of
+	 * the same buffer.
+	 *
+	 * @param line     to send, without line terminator
+	 * @param excluded player that doesn't get the line, may be null
+	 */
+	public void broadcast(String line, Player excluded) {
+		if (players == null) {
+			return;
+		}
+		ByteBuffer payload = Messages.encodeShared(line);
+		for (Player player : players) {
+			if (player != excluded && !player.isToDelete()) {
+				player.deliver(payload);
+			}
+		}
 	}
 
 	/**
@@ -163,7 +411,11 @@ public class Room {
 	 * @param player
 	 */
 	public void addPlayer(Player player) {
+		if (players == null) {
+			players = new ArrayList<>();
+		}
 		players.add(player);
+		activityChanged();
 	}
 
 	/**
@@ -171,19 +423,11 @@ public class Room {
 	 * @return Optionally the player if he is in combat
 	 */
 	public Optional<Player> getCombatingPlayer(Player player) {
-		Optional<Player> ifIsPlayer1 =
-				combats.stream()
-						.filter(c -> c.getPlayer1().equals(player))
-						.map(Combat::getPlayer2)
-						.findFirst();
-		if (ifIsPlayer1.isPresent()) {
-			return ifIsPlayer1;
-		} else {
-			return combats.stream()
-					.filter(c -> c.getPlayer2().equals(player))
-					.map(Combat::getPlayer1)
-					.findFirst();
+		Combat combat = combatsByPlayer == null ? null : combatsByPlayer.get(player);
+		if (combat == null) {
+			return Optional.empty();
 		}
+		return Optional.of(combat.getPlayer1() == player ? combat.getPlayer2() : combat.getPlayer1());
 	}
 
 	/**
@@ -192,12 +436,18 @@ public class Room {
 	 * @return Optionally an Item
 	 */
 	public Optional<Item> pickUpItem(int itemId) {
+		if (items == null) {
+			return Optional.empty();
+		}
 		Optional<Item> item = items
 				.stream().filter(i -> i.getId() == itemId)
 				.findFirst();
 
 		if (item.isPresent()) {
-			items.remove(item.get());
+			ownItems().remove(item.get());
+			if (world != null) {
+				world.itemRemoved();
+			}
 		}
 
 		return item;
@@ -0,0 +1,26 @@
+package org.hurlimann.zuul;
+
+/**
+ * The ways the server can do the network I/O of the players.
+ * Either way all game logic runs on the single game loop.
+ */
+enum ServerMode {
+	/**
+	 * Non blocking I/O multiplexed over a few selector based event loops.
+	 */
+	REACTOR,
+
+	/**
+	 * Blocking I/O with a virtual reader and writer thread per player. Needs Java 21 to use virtual threads,
+	 * older runtimes fall back to platform threads.
+	 */
+	VIRTUAL_THREADS;
+
+	/**
+	 * @param name of the mode, case insensitive and with either dashes or underscores
+	 * @return the matching mode
+	 */
+	static ServerMode of(String name) {
+		return valueOf(name.toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,33 @@
+package org.hurlimann.zuul;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The transport of a single player as seen by the game: a place to send output to and a way to hang up.
+ * How the bytes travel is up to the implementation.
+ */
+interface Session {
+	Player getPlayer();
+
+	void setPlayer(Player player);
+
+	/**
+	 * Queues a message for the client. The buffer is owned by the session afterwards.
+	 * If the queue is full the {@link Config#SLOW_CONSUMER_POLICY} decides what happens.
+	 * May be called from any thread.
+	 *
+	 * @param message buffer in read mode
+	 */
+	void send(ByteBuffer message);
+
+	/**
+	 * @return true if the session has to be closed, either because its queue overflowed or because the client
+	 * hasn't read any of its pending output for too long
+	 */
+	boolean isSlowConsumer(long now);
+
+	/**
+	 * Closes the session once the output queued so far had a chance to go out. May be called from any thread.
+	 */
+	void closeLater();
+}
@@ -0,0 +1,242 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the game headless: bots without a network connection send commands to a {@link GameEngine} and the world
+ * advances as fast as it can, without waiting for the clock. The world is configured with the same system
+ * properties as the server's:
+ * <pre>
+ * java -Dzuul.worldLayout=grid -cp zuul.jar org.hurlimann.zuul.Simulator 5000 2000 42
+ * </pre>
+ * Every frame each bot sends one command, picked at random with the weights of {@link #MIX}. Bots that quit or
+ * die are replaced by new ones. The bots know the world, they pick up items and attack players that are actually
+ * in their room. With the same seed and the same world a run takes exactly the same turns, so the summary printed
+ * at the end is the same too and only the timings differ.
+ * <p>
+ * The report lists the time spent per command, for finding the expensive ones, and the frames and commands per
+ * second, for comparing builds and for estimating how many players a server can take.
+ */
+public class Simulator {
+	private static final CommandWord[] COMMANDS = CommandWord.values();
+
+	/**
+	 * How often the bots send each command, relative to each other
+	 */
+	private static final int[] MIX = mix();
+
+	/**
+	 * Rows of the report that aren't commands
+	 */
+	private static final int JOIN = COMMANDS.length;
+	private static final int FRAME = JOIN + 1;
+
+	private final GameEngine engine;
+	private final GameRandom random;
+	private final Bot[] bots;
+	private final long[] counts = new long[FRAME + 1];
+	private final long[] nanos = new long[FRAME + 1];
+	private final long[] maxNanos = new long[FRAME + 1];
+	private final StringBuilder line = new StringBuilder();
+	private long outputBytes = 0;
+	private long botsJoined = 0;
+
+	/**
+	 * @param world to play in
+	 * @param bots  number of bots playing at once
+	 * @param seed  of the world's chance and of the bots' decisions
+	 */
+	Simulator(World world, int bots, long seed) {
+		engine = new GameEngine(world);
+		world.getRandom().setSeed(seed);
+		// a generator of their own, so the bots don't change what the world draws
+		random = new GameRandom(~seed);
+		this.bots = new Bot[bots];
+		for (int i = 0; i < bots; i++) {
+			this.bots[i] = join();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: Simulator <bots> <frames> [<seed>]");
+			System.exit(2);
+		}
+		int bots = Integer.parseInt(args[0]);
+		int frames = Integer.parseInt(args[1]);
+		long seed = args.length == 3 ? Long.parseLong(args[2]) : 0;
+
+		Simulator simulator = new Simulator(Game.loadWorld(), bots, seed);
+		long start = System.nanoTime();
+		simulator.run(frames);
+		long elapsed = System.nanoTime() - start;
+		simulator.report(elapsed);
+	}
+
+	GameEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Plays a number of frames.
+	 *
+	 * @param frames to play
+	 */
+	void run(int frames) {
+		for (int i = 0; i < frames; i++) {
+			for (int j = 0; j < bots.length; j++) {
+				if (!engine.isPlaying(bots[j])) {
+					bots[j] = join();
+				}
+				act(bots[j]);
+			}
+			long start = System.nanoTime();
+			engine.advanceFrame();
+			count(FRAME, System.nanoTime() - start);
+		}
+	}
+
+	private Bot join() {
+		Bot bot = new Bot();
+		long start = System.nanoTime();
+		engine.addPlayer(bot);
+		count(JOIN, System.nanoTime() - start);
+		botsJoined++;
+		return bot;
+	}
+
+	/**
+	 * Lets a bot send its next command.
+	 */
+	private void act(Bot bot) {
+		CommandWord command = pick();
+		line.setLength(0);
+		line.append(command);
+		Player player = bot.getPlayer();
+		Room room = player.getRoom();
+		switch (command) {
+			case GO:
+				line.append(' ').append(Direction.VALUES[random.nextInt(Direction.VALUES.length)]);
+				break;
+			case SAY:
+				line.append(" hello ").append(room.getId());
+				break;
+			case PICKUP:
+				List<Item> items = room.getItems();
+				line.append(' ').append(items.isEmpty() ? 0 : items.get(random.nextInt(items.size())).getId());
+				break;
+			case ATTACK:
+				List<Player> players = room.getPlayers();
+				Player other = players.get(random.nextInt(players.size()));
+				if (other != player) {
+					line.append(' ').append(other.getName());
+				}
+				break;
+			case SETNAME:
+				line.append(" bot").append(player.getId());
+				break;
+			default:
+				break;
+		}
+		long start = System.nanoTime();
+		engine.processLine(bot, line);
+		count(command.ordinal(), System.nanoTime() - start);
+	}
+
+	private CommandWord pick() {
+		int value = random.nextInt(MIX[MIX.length - 1]);
+		int i = 0;
+		while (MIX[i] <= value) {
+			i++;
+		}
+		return COMMANDS[i];
+	}
+
+	private void count(int row, long elapsed) {
+		counts[row]++;
+		nanos[row] += elapsed;
+		maxNanos[row] = Math.max(maxNanos[row], elapsed);
+	}
+
+	/**
+	 * Prints where the time went, how fast the game ran and what the world looks like afterwards.
+	 *
+	 * @param elapsed nanoseconds the run took
+	 */
+	void report(long elapsed) {
+		World world = engine.getWorld();
+		System.out.printf(Locale.ROOT, "%-10s %12s %12s %10s %12s%n", "", "count", "total ms", "mean ns", "max ns");
+		for (int row = 0; row <= FRAME; row++) {
+			if (counts[row] == 0) {
+				continue;
+			}
+			String name = row == FRAME ? "(frame)" : row == JOIN ? "(join)" : COMMANDS[row].toString();
+			System.out.printf(Locale.ROOT, "%-10s %12d %12.1f %10d %12d%n", name, counts[row], nanos[row] / 1e6,
+					nanos[row] / counts[row], maxNanos[row]);
+		}
+
+		long commands = 0;
+		for (int row = 0; row < JOIN; row++) {
+			commands += counts[row];
+		}
+		double seconds = Math.max(1, elapsed) / (double) TimeUnit.SECONDS.toNanos(1);
+		System.out.printf(Locale.ROOT, "%d frames with %d bots in %.2f s: %.0f frames/s, %.0f commands/s%n",
+				engine.getFrame(), bots.length, seconds, engine.getFrame() / seconds, commands / seconds);
+		System.out.printf(Locale.ROOT, "%d bots joined, %d items on the ground, %d items spawned, %d bytes of output%n",
+				botsJoined, world.getItemCount(), world.getSpawnedItemCount(), outputBytes);
+	}
+
+	/**
+	 * Cumulative weights of the commands, in the order of {@link CommandWord}.
+	 */
+	private static int[] mix() {
+		int[] weights = new int[COMMANDS.length];
+		weights[CommandWord.GO.ordinal()] = 40;
+		weights[CommandWord.LOOK.ordinal()] = 20;
+		weights[CommandWord.PICKUP.ordinal()] = 15;
+		weights[CommandWord.SAY.ordinal()] = 10;
+		weights[CommandWord.ATTACK.ordinal()] = 10;
+		weights[CommandWord.HELP.ordinal()] = 3;
+		weights[CommandWord.SETNAME.ordinal()] = 1;
+		weights[CommandWord.QUIT.ordinal()] = 1;
+		for (int i = 1; i < weights.length; i++) {
+			weights[i] += weights[i - 1];
+		}
+		return weights;
+	}
+
+	/**
+	 * The session of a bot. Output is counted and dropped.
+	 */
+	private final class Bot implements Session {
+		private Player player;
+
+		@Override
+		public Player getPlayer() {
+			return player;
+		}
+
+		@Override
+		public void setPlayer(Player player) {
+			this.player = player;
+		}
+
+		@Override
+		public void send(ByteBuffer message) {
+			outputBytes += message.remaining();
+		}
+
+		@Override
+		public boolean isSlowConsumer(long now) {
+			return false;
+		}
+
+		@Override
+		public void closeLater() {
+		}
+	}
+}
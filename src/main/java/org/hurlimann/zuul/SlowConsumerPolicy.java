@@ -0,0 +1,24 @@
+package org.hurlimann.zuul;
+
+/**
+ * What to do with a connection whose outbound queue is full because the client doesn't read fast enough.
+ */
+enum SlowConsumerPolicy {
+	/**
+	 * Drop messages that don't fit into the queue anymore.
+	 */
+	DROP,
+
+	/**
+	 * Disconnect the client as soon as a message doesn't fit into the queue anymore.
+	 */
+	DISCONNECT;
+
+	/**
+	 * @param name of the policy, case insensitive
+	 * @return the matching policy
+	 */
+	static SlowConsumerPolicy of(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -0,0 +1,64 @@
+package org.hurlimann.zuul;
+
+/**
+ * Picks the rooms an item spawns in during a frame, without rolling the dice for every room.
+ * <p>
+ * Rolling for each room in turn is a sequence of independent trials, and the number of trials up to the next
+ * success is geometrically distributed. So instead of rolling for every room the sampler draws that number and
+ * jumps straight to the next room that spawns an item. The rooms in between are never looked at. For rooms with
+ * different spawn chances the sampler jumps with the highest chance of all rooms, and then keeps a room with the
+ * ratio of its own chance to the highest one. Either way every room spawns an item with exactly its own chance.
+ * <p>
+ * A frame costs as much as the number of items that spawn in it, no matter how many rooms there are.
+ */
+class SpawnSampler {
+	private final GameRandom random;
+	private int maxSpawnChance = 0;
+
+	/**
+	 * @param random to roll the dice with
+	 */
+	SpawnSampler(GameRandom random) {
+		this.random = random;
+	}
+
+	/**
+	 * Makes a room known to the sampler.
+	 *
+	 * @param spawnChance of the room per frame in tenths of a percent
+	 */
+	void addSpawnChance(int spawnChance) {
+		maxSpawnChance = Math.max(maxSpawnChance, Math.min(spawnChance, 1000));
+	}
+
+	/**
+	 * @return whether an item may spawn in any room at all
+	 */
+	boolean isEmpty() {
+		return maxSpawnChance == 0;
+	}
+
+	/**
+	 * Jumps to the next room that is a candidate for spawning an item. Start with -1 to get the first one of a frame.
+	 *
+	 * @param roomId of the previous candidate
+	 * @return the id of the next candidate, may be past the last room
+	 */
+	long next(long roomId) {
+		if (maxSpawnChance >= 1000) {
+			return roomId + 1;
+		}
+		double u = 1.0 - random.nextDouble(); // in (0, 1]
+		return roomId + 1 + (long) Math.floor(Math.log(u) / Math.log1p(-maxSpawnChance / 1000.0));
+	}
+
+	/**
+	 * Decides whether a candidate spawns an item.
+	 *
+	 * @param spawnChance of the candidate per frame in tenths of a percent
+	 * @return true if an item spawns in the candidate
+	 */
+	boolean accept(int spawnChance) {
+		return spawnChance >= maxSpawnChance || random.nextInt(maxSpawnChance) < spawnChance;
+	}
+}
@@ -0,0 +1,285 @@
+package org.hurlimann.zuul;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A hashed hierarchical timing wheel for the timers of the game: cooldowns, despawns, idle kicks and the like.
+ * <p>
+ * Time advances in ticks of a fixed length, much shorter than a frame of the game. The wheel has
+ * {@link #LEVELS} levels of {@link #SLOTS} slots each. The lowest level holds the timers due within the next
+ * {@link #SLOTS} ticks, one slot per tick. Every level above covers {@link #SLOTS} times the span of the one below.
+ * Whenever a level wraps around, the timers of the next slot of the level above are cascaded down, so a timer
+ * moves through every level at most once.
+ * <p>
+ * Scheduling and cancelling are O(1), and so is a tick apart from the timers it fires. A bitmap of the occupied
+ * slots lets the wheel skip empty ticks, and tells the event loop how long it may sleep. However many timers are
+ * pending, a tick only costs as much as the timers that expire in it.
+ * <p>
+ * The wheel is not thread-safe, it belongs to the thread of an {@link EventLoop}. Timers fire in
+ * {@link #advance()}, never early, and at most one tick late.
+ * <p>
+ * The wheel reads the time from a clock, usually {@link System#nanoTime()}; a benchmark or a simulation can drive it
+ * with a clock of its own.
+ */
+class TimerWheel {
+	private static final int SLOT_BITS = 6;
+	/**
+	 * Number of slots per level
+	 */
+	static final int SLOTS = 1 << SLOT_BITS;
+	/**
+	 * Number of levels, together they cover 2^36 ticks
+	 */
+	static final int LEVELS = 6;
+	private static final int SLOT_MASK = SLOTS - 1;
+
+	/**
+	 * A scheduled task. Cancel it through its handle.
+	 */
+	static final class Timer {
+		private final Runnable task;
+		private final long deadline;
+		private TimerWheel wheel;
+		// the slot the timer is in, as level * SLOTS + slot, and its neighbours in there
+		private int bucket;
+		private Timer previous;
+		private Timer next;
+
+		private Timer(TimerWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the timer unless it fired already.
+		 *
+		 * @return true if the timer was pending
+		 */
+		boolean cancel() {
+			if (wheel == null) {
+				return false;
+			}
+			wheel.remove(this);
+			wheel.size--;
+			wheel = null;
+			return true;
+		}
+
+		/**
+		 * @return true until the timer fired or was cancelled
+		 */
+		boolean isPending() {
+			return wheel != null;
+		}
+	}
+
+	private final long tickNanos;
+	private final LongSupplier clock;
+	private final long startNanos;
+	private final Timer[] buckets = new Timer[LEVELS * SLOTS];
+	// a bit for every non empty slot of a level
+	private final long[] occupied = new long[LEVELS];
+	// the timers of the slot that is firing, a task may cancel any of them
+	private Timer expiring;
+	private long currentTick = 0;
+	private int size = 0;
+
+	/**
+	 * @param tickNanos length of a tick, the resolution of the timers
+	 * @param clock     giving the time in nanoseconds like {@link System#nanoTime()}
+	 */
+	TimerWheel(long tickNanos, LongSupplier clock) {
+		if (tickNanos <= 0) {
+			throw new IllegalArgumentException("Invalid tick: " + tickNanos);
+		}
+		this.tickNanos = tickNanos;
+		this.clock = clock;
+		this.startNanos = clock.getAsLong();
+	}
+
+	/**
+	 * Schedules a task. It runs on the first tick that starts after the delay passed.
+	 *
+	 * @param task  to run
+	 * @param delay from now
+	 * @param unit  of the delay
+	 * @return the handle to cancel the timer
+	 */
+	Timer schedule(Runnable task, long delay, TimeUnit unit) {
+		long elapsed = clock.getAsLong() - startNanos;
+		long nanos = Math.min(unit.toNanos(Math.max(0, delay)), Long.MAX_VALUE / 4);
+		long deadline = -Math.floorDiv(-(elapsed + nanos), tickNanos); // rounded up
+		Timer timer = new Timer(this, task, Math.max(deadline, currentTick + 1));
+		insert(timer);
+		size++;
+		return timer;
+	}
+
+	/**
+	 * @return number of pending timers
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Fires every timer that expired by now.
+	 *
+	 * @return number of timers that fired
+	 */
+	int advance() {
+		long target = (clock.getAsLong() - startNanos) / tickNanos;
+		int fired = 0;
+		while (currentTick < target) {
+			long next = nextEventTick();
+			if (next > target) {
+				currentTick = target;
+				break;
+			}
+			currentTick = next;
+			if ((next & SLOT_MASK) == 0) {
+				cascade(next);
+			}
+			fired += fire((int) (next & SLOT_MASK));
+		}
+		return fired;
+	}
+
+	/**
+	 * Tells an event loop how long it may block before the wheel needs to advance again.
+	 *
+	 * @return nanoseconds until the next tick with work, {@link Long#MAX_VALUE} if no timers are pending
+	 */
+	long nanosUntilNextEvent() {
+		long tick = nextEventTick();
+		if (size == 0 || tick >= Long.MAX_VALUE / tickNanos) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, startNanos + tick * tickNanos - clock.getAsLong());
+	}
+
+	/**
+	 * Finds the next tick with work from the bitmaps of all levels: the lowest level fires its next occupied slot, a
+	 * level above cascades its next occupied slot once the levels below wrap around to it. The ticks in between are
+	 * skipped, however far away the next timer is.
+	 *
+	 * @return the next tick that fires timers or cascades them down, {@link Long#MAX_VALUE} if the wheel is empty
+	 */
+	private long nextEventTick() {
+		long next = Long.MAX_VALUE;
+		for (int level = 0; level < LEVELS; level++) {
+			long slots = occupied[level];
+			if (slots == 0) {
+				continue;
+			}
+			int shift = SLOT_BITS * level;
+			long position = currentTick >>> shift;
+			int slot = (int) (position & SLOT_MASK);
+			long turn = position & ~SLOT_MASK;
+			// the occupied slots still ahead in the current turn of the level, else the first one of the next turn
+			long ahead = slot == SLOT_MASK ? 0 : slots & (-1L << (slot + 1));
+			if (ahead != 0) {
+				long tick = (turn + Long.numberOfTrailingZeros(ahead)) << shift;
+				if (level == 0) {
+					// the levels above only cascade once the lowest one wrapped around
+					return tick;
+				}
+				next = Math.min(next, tick);
+			} else {
+				next = Math.min(next, (turn + SLOTS + Long.numberOfTrailingZeros(slots)) << shift);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Moves the timers of the slots that come due at a tick down, starting with the highest level that wraps.
+	 */
+	private void cascade(long tick) {
+		int level = 1;
+		while (level < LEVELS - 1 && ((tick >>> (SLOT_BITS * level)) & SLOT_MASK) == 0) {
+			level++;
+		}
+		for (; level >= 1; level--) {
+			int bucket = level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Timer timer = detach(bucket);
+			while (timer != null) {
+				Timer next = timer.next;
+				insert(timer);
+				timer = next;
+			}
+		}
+	}
+
+	private int fire(int slot) {
+		expiring = detach(slot);
+		int fired = 0;
+		Timer timer;
+		while ((timer = expiring) != null) {
+			expiring = timer.next;
+			if (expiring != null) {
+				expiring.previous = null;
+			}
+			timer.next = null;
+			timer.wheel = null;
+			size--;
+			fired++;
+			try {
+				timer.task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		return fired;
+	}
+
+	private void insert(Timer timer) {
+		long delta = timer.deadline - currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+			level++;
+		}
+		int bucket = level * SLOTS + (int) ((timer.deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+		Timer head = buckets[bucket];
+		timer.bucket = bucket;
+		timer.previous = null;
+		timer.next = head;
+		if (head != null) {
+			head.previous = timer;
+		}
+		buckets[bucket] = timer;
+		occupied[level] |= 1L << (bucket & SLOT_MASK);
+	}
+
+	private void remove(Timer timer) {
+		if (timer.previous != null) {
+			timer.previous.next = timer.next;
+		} else if (timer == expiring) {
+			expiring = timer.next;
+		} else {
+			buckets[timer.bucket] = timer.next;
+			if (timer.next == null) {
+				occupied[timer.bucket >>> SLOT_BITS] &= ~(1L << (timer.bucket & SLOT_MASK));
+			}
+		}
+		if (timer.next != null) {
+			timer.next.previous = timer.previous;
+		}
+		timer.previous = null;
+		timer.next = null;
+	}
+
+	/**
+	 * Empties a slot.
+	 *
+	 * @return the first timer of the slot, the others follow through {@link Timer#next}
+	 */
+	private Timer detach(int bucket) {
+		Timer head = buckets[bucket];
+		buckets[bucket] = null;
+		occupied[bucket >>> SLOT_BITS] &= ~(1L << (bucket & SLOT_MASK));
+		return head;
+	}
+}
@@ -0,0 +1,35 @@
+package org.hurlimann.zuul;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads without requiring Java 21 to build.
+ * Falls back to daemon platform threads on older runtimes.
+ */
+final class VirtualThreads {
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @param name of the created threads
+	 * @return a factory creating virtual threads if the runtime supports them, platform threads otherwise
+	 */
+	static ThreadFactory factory(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			System.err.println("Virtual threads need Java 21, this is Java " + System.getProperty("java.version")
+					+ ". Every session uses two platform threads instead.");
+			return r -> {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+}
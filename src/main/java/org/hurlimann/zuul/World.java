@@ -0,0 +1,294 @@
+package org.hurlimann.zuul;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rooms and players of the game and bookkeeping that spans all of them.
+ * <p>
+ * Rooms report every item that appears or disappears in them, so the world always knows how many items are lying
+ * around without having to look into every room. A {@link SpawnSampler} picks the rooms items spawn in, so a frame only
+ * touches the rooms that actually get an item. Besides that only the active rooms, the ones with players or combats
+ * in them, are updated every frame. Dormant rooms cost nothing, however big the world is.
+ * <p>
+ * A world is either built room by room with {@link #addRoom(Room)}, or backed by a {@link CompactWorld}. In the
+ * latter case a room only becomes a {@link Room} object the first time it is touched, until then it is nothing but
+ * a few entries in the compact tables.
+ * <p>
+ * A {@link WorldSnapshot} of the world is captured a slice of rooms at a time, so taking one never stalls a frame.
+ */
+class World {
+	// every room that exists as an object, in the order it was added or materialized
+	private final List<Room> rooms = new ArrayList<>();
+	private final CompactWorld graph;
+	// materialized rooms of the compact world by id, null for rooms nobody touched yet
+	private final Room[] roomsById;
+	// in no particular order, every room knows its position
+	private final List<Room> activeRooms = new ArrayList<>();
+	private final PlayerRegistry players = new PlayerRegistry();
+	private final GameRandom random = new GameRandom(Config.RANDOM_SEED);
+	private final SpawnSampler spawns = new SpawnSampler(random);
+	private Room startingRoom;
+	private int itemCount = 0;
+	private long spawnedItemCount = 0;
+	// the snapshot being captured, null if there is none
+	private WorldSnapshot.Capture capture;
+	private int snapshotEpoch = 0;
+
+	/**
+	 * Creates an empty world that is built room by room.
+	 */
+	World() {
+		this.graph = null;
+		this.roomsById = null;
+	}
+
+	/**
+	 * Creates a world backed by a compact world.
+	 *
+	 * @param graph with all the rooms
+	 */
+	World(CompactWorld graph) {
+		this.graph = graph;
+		this.roomsById = new Room[graph.getRoomCount()];
+		int[] spawnChances = graph.getSpawnChances();
+		int[] maxItemCounts = graph.getMaxItemCounts();
+		for (int i = 0; i < spawnChances.length; i++) {
+			if (maxItemCounts[i] > 0) {
+				spawns.addSpawnChance(spawnChances[i]);
+			}
+		}
+		if (graph.getRoomCount() > 0) {
+			startingRoom = getRoom(graph.getStartingRoom());
+		}
+	}
+
+	/**
+	 * Adds a room to the world. Its spawn settings must not change afterwards.
+	 *
+	 * @param room to add
+	 */
+	void addRoom(Room room) {
+		if (graph != null) {
+			throw new IllegalStateException("The rooms of a compact world can't be changed");
+		}
+		room.setWorld(this, rooms.size());
+		rooms.add(room);
+		itemCount += room.getItemCount();
+		if (room.getMaxItemCount() > 0) {
+			spawns.addSpawnChance(room.getSpawnChance());
+		}
+	}
+
+	/**
+	 * @param id of the room
+	 * @return the room, materialized if it is the first time somebody asks for it
+	 */
+	Room getRoom(int id) {
+		if (graph == null) {
+			return rooms.get(id);
+		}
+		Room room = roomsById[id];
+		if (room == null) {
+			room = new Room(this, id, graph.getDescription(id));
+			room.setSpawnChance(graph.getSpawnChance(id));
+			room.setMaxItemCount(graph.getMaxItemCount(id));
+			roomsById[id] = room;
+			rooms.add(room);
+		}
+		return room;
+	}
+
+	/**
+	 * @return number of rooms, including the ones that are not materialized yet
+	 */
+	int getRoomCount() {
+		return graph == null ? rooms.size() : roomsById.length;
+	}
+
+	/**
+	 * @param roomId    of a room of the compact world
+	 * @param direction of the exit
+	 * @return whether the room has an exit in that direction
+	 */
+	boolean hasExit(int roomId, Direction direction) {
+		return graph.getExit(roomId, direction) != CompactWorld.NO_EXIT;
+	}
+
+	/**
+	 * @param roomId    of a room of the compact world
+	 * @param direction of the exit
+	 * @return the room the exit leads to or null if there is none
+	 */
+	Room getExit(int roomId, Direction direction) {
+		int neighbour = graph.getExit(roomId, direction);
+		return neighbour == CompactWorld.NO_EXIT ? null : getRoom(neighbour);
+	}
+
+	/**
+	 * @return an unmodifiable list of all rooms that exist as objects
+	 */
+	List<Room> getRooms() {
+		return Collections.unmodifiableList(rooms);
+	}
+
+	/**
+	 * Removes the killed players from every active room.
+	 */
+	void updateRooms() {
+		// backwards, a room that turns dormant is replaced by the last one which was updated already
+		for (int i = activeRooms.size() - 1; i >= 0; i--) {
+			activeRooms.get(i).updateRoom();
+		}
+	}
+
+	/**
+	 * Called by a room whenever it turned active or dormant.
+	 *
+	 * @param room whose activity changed
+	 */
+	void activityChanged(Room room) {
+		int index = room.getActiveIndex();
+		if (room.isActive()) {
+			if (index < 0) {
+				room.setActiveIndex(activeRooms.size());
+				activeRooms.add(room);
+			}
+		} else if (index >= 0) {
+			Room last = activeRooms.remove(activeRooms.size() - 1);
+			if (last != room) {
+				activeRooms.set(index, last);
+				last.setActiveIndex(index);
+			}
+			room.setActiveIndex(-1);
+		}
+	}
+
+	/**
+	 * @return number of rooms with players or combats in them
+	 */
+	int getActiveRoomCount() {
+		return activeRooms.size();
+	}
+
+	/**
+	 * Spawns an item in every room whose roll of the dice comes up this frame, unless the room is full. The rooms of
+	 * a compact world are materialized when an item spawns in them.
+	 */
+	void spawnItems() {
+		if (spawns.isEmpty()) {
+			return;
+		}
+		int roomCount = getRoomCount();
+		for (long candidate = spawns.next(-1); candidate < roomCount; candidate = spawns.next(candidate)) {
+			int id = (int) candidate;
+			Room room = graph == null ? rooms.get(id) : roomsById[id];
+			if (room == null) {
+				if (graph.getMaxItemCount(id) > 0 && spawns.accept(graph.getSpawnChance(id))) {
+					getRoom(id).spawnItem();
+					spawnedItemCount++;
+				}
+			} else if (room.getItemCount() < room.getMaxItemCount() && spawns.accept(room.getSpawnChance())) {
+				room.spawnItem();
+				spawnedItemCount++;
+			}
+		}
+	}
+
+	/**
+	 * Starts capturing a snapshot, see {@link #advanceSnapshot(int)}.
+	 *
+	 * @param journalSegment the first segment of the {@link Journal} written after the snapshot
+	 */
+	void startSnapshot(long journalSegment) {
+		if (capture != null) {
+			throw new IllegalStateException("A snapshot is being captured already");
+		}
+		capture = new WorldSnapshot.Capture(this, ++snapshotEpoch, activeRooms, journalSegment);
+	}
+
+	/**
+	 * Captures the next slice of rooms for the snapshot that was started.
+	 *
+	 * @param maxRooms most rooms to look at
+	 * @return the snapshot once it is complete, null while it isn't or if no snapshot was started
+	 */
+	WorldSnapshot advanceSnapshot(int maxRooms) {
+		if (capture == null || !capture.advance(maxRooms)) {
+			return null;
+		}
+		WorldSnapshot snapshot = capture.finish();
+		capture = null;
+		return snapshot;
+	}
+
+	/**
+	 * @return whether a snapshot is being captured
+	 */
+	boolean isCapturingSnapshot() {
+		return capture != null;
+	}
+
+	/**
+	 * Called by a room right before its items change.
+	 *
+	 * @param room whose items change
+	 */
+	void itemsChanging(Room room) {
+		if (capture != null) {
+			capture.add(room);
+		}
+	}
+
+	/**
+	 * @return the source of all chance in the world
+	 */
+	GameRandom getRandom() {
+		return random;
+	}
+
+	/**
+	 * @return the players in the world
+	 */
+	PlayerRegistry getPlayers() {
+		return players;
+	}
+
+	Room getStartingRoom() {
+		return startingRoom;
+	}
+
+	void setStartingRoom(Room startingRoom) {
+		this.startingRoom = startingRoom;
+	}
+
+	/**
+	 * @return number of items lying around in all rooms
+	 */
+	int getItemCount() {
+		return itemCount;
+	}
+
+	/**
+	 * @return number of items spawned by {@link #spawnItems()} since the world was created, restoring a snapshot
+	 * doesn't count
+	 */
+	long getSpawnedItemCount() {
+		return spawnedItemCount;
+	}
+
+	/**
+	 * Called by a room whenever an item appeared in it.
+	 */
+	void itemAdded() {
+		itemCount++;
+	}
+
+	/**
+	 * Called by a room whenever an item was taken out of it.
+	 */
+	void itemRemoved() {
+		itemCount--;
+	}
+}
@@ -0,0 +1,45 @@
+package org.hurlimann.zuul;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles the text definition of a world into a world image the server can map at startup:
+ * <pre>
+ * java -cp zuul.jar org.hurlimann.zuul.WorldCompiler campus.world campus.img
+ * java -Dzuul.world=campus.img -jar zuul.jar
+ * </pre>
+ *
+ * @see WorldDefinition
+ * @see WorldImage
+ */
+public class WorldCompiler {
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: WorldCompiler <definition> <image>");
+			System.exit(2);
+		}
+		Path definition = Paths.get(args[0]);
+		Path image = Paths.get(args[1]);
+
+		long start = System.nanoTime();
+		CompactWorld world;
+		try (BufferedReader reader = Files.newBufferedReader(definition, StandardCharsets.UTF_8)) {
+			world = WorldDefinition.parse(reader, definition.toString());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		WorldImage.write(world, image);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		System.out.println("Compiled " + world.getRoomCount() + " rooms with " + world.getDescriptions().length
+				+ " descriptions into " + image + " (" + Files.size(image) + " bytes) in " + millis + " ms");
+	}
+}
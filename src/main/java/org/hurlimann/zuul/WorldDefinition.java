@@ -0,0 +1,165 @@
+package org.hurlimann.zuul;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the text definition of a world. Every line holds one statement, blank lines and lines starting with '#' are
+ * ignored:
+ * <pre>
+ * room &lt;name&gt; &lt;description&gt;   starts a room, the description runs to the end of the line
+ * exit &lt;direction&gt; &lt;room&gt;     one way exit from the current room to another room
+ * spawn &lt;chance&gt; [&lt;max&gt;]     item spawn chance of the current room per frame in tenths of a percent,
+ *                            and the most items it may hold
+ * start &lt;room&gt;               the room new players start in, the first room by default
+ * </pre>
+ * Rooms may be referred to before they are defined. The rooms get their ids in the order they are defined.
+ */
+class WorldDefinition {
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final String source;
+	private final List<String> descriptions = new ArrayList<>();
+	private final List<int[]> spawns = new ArrayList<>();
+	private final Map<String, Integer> roomIds = new HashMap<>();
+	private final List<PendingExit> exits = new ArrayList<>();
+	private String startingRoom;
+	private int startingRoomLine;
+	private int lineNumber = 0;
+
+	private WorldDefinition(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * Reads a world definition.
+	 *
+	 * @param reader to read the definition from
+	 * @param source name of the definition, used in error messages
+	 * @return the compact world defined
+	 * @throws IOException if the definition can't be read or is invalid
+	 */
+	static CompactWorld parse(BufferedReader reader, String source) throws IOException {
+		WorldDefinition definition = new WorldDefinition(source);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			definition.parseLine(line.trim());
+		}
+		return definition.build();
+	}
+
+	private void parseLine(String line) throws IOException {
+		lineNumber++;
+		if (line.isEmpty() || line.startsWith("#")) {
+			return;
+		}
+		String[] words = WHITESPACE.split(line, 3);
+		switch (words[0]) {
+			case "room":
+				if (words.length < 3) {
+					throw error(lineNumber, "room needs a name and a description");
+				}
+				if (roomIds.putIfAbsent(words[1], descriptions.size()) != null) {
+					throw error(lineNumber, "room " + words[1] + " is defined twice");
+				}
+				descriptions.add(words[2]);
+				spawns.add(null);
+				break;
+			case "exit":
+				if (words.length != 3 || words[2].contains(" ")) {
+					throw error(lineNumber, "exit needs a direction and a room");
+				}
+				Direction direction = Direction.findDirection(words[1]);
+				if (direction == null) {
+					throw error(lineNumber, "unknown direction " + words[1]);
+				}
+				exits.add(new PendingExit(currentRoom(), direction, words[2], lineNumber));
+				break;
+			case "spawn":
+				int room = currentRoom();
+				String[] settings = WHITESPACE.split(line);
+				if (settings.length < 2 || settings.length > 3) {
+					throw error(lineNumber, "spawn needs a chance and optionally the most items");
+				}
+				try {
+					int chance = Integer.parseInt(settings[1]);
+					int max = settings.length == 3 ? Integer.parseInt(settings[2]) : Integer.MAX_VALUE;
+					if (chance < 0 || chance > 1000 || max < 0) {
+						throw error(lineNumber, "spawn chance must be between 0 and 1000, the most items positive");
+					}
+					spawns.set(room, new int[]{chance, max});
+				} catch (NumberFormatException e) {
+					throw error(lineNumber, "spawn settings must be numbers");
+				}
+				break;
+			case "start":
+				if (words.length != 2) {
+					throw error(lineNumber, "start needs a room");
+				}
+				startingRoom = words[1];
+				startingRoomLine = lineNumber;
+				break;
+			default:
+				throw error(lineNumber, "unknown statement " + words[0]);
+		}
+	}
+
+	private int currentRoom() throws IOException {
+		if (descriptions.isEmpty()) {
+			throw error(lineNumber, "no room defined yet");
+		}
+		return descriptions.size() - 1;
+	}
+
+	private CompactWorld build() throws IOException {
+		CompactWorld.Builder builder = new CompactWorld.Builder(descriptions.size());
+		for (int id = 0; id < descriptions.size(); id++) {
+			builder.setDescription(id, descriptions.get(id));
+			int[] spawn = spawns.get(id);
+			if (spawn != null) {
+				builder.setSpawn(id, spawn[0], spawn[1]);
+			}
+		}
+		for (PendingExit exit : exits) {
+			builder.setExit(exit.room, exit.direction, resolve(exit.target, exit.lineNumber));
+		}
+		if (startingRoom != null) {
+			builder.setStartingRoom(resolve(startingRoom, startingRoomLine));
+		}
+		return builder.build();
+	}
+
+	private int resolve(String room, int line) throws IOException {
+		Integer id = roomIds.get(room);
+		if (id == null) {
+			throw error(line, "unknown room " + room);
+		}
+		return id;
+	}
+
+	private IOException error(int line, String message) {
+		return new IOException(source + ":" + line + ": " + message);
+	}
+
+	/**
+	 * An exit whose target may not be defined yet.
+	 */
+	private static class PendingExit {
+		private final int room;
+		private final Direction direction;
+		private final String target;
+		private final int lineNumber;
+
+		PendingExit(int room, Direction direction, String target, int lineNumber) {
+			this.room = room;
+			this.direction = direction;
+			this.target = target;
+			this.lineNumber = lineNumber;
+		}
+	}
+}
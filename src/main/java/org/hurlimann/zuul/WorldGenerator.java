@@ -0,0 +1,280 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Generates worlds of any size for scale and soak tests.
+ * <p>
+ * The rooms are laid out row by row on a square grid, the last row may be partial. Whether two neighbours are
+ * connected, what a room looks like and how often items spawn in it is derived from a hash of the seed and the
+ * position alone. So every room can be generated independently of all others: the same seed always gives the same
+ * world, the rooms are generated in parallel, and a world can be streamed into a {@link WorldImage} chunk by chunk
+ * without ever being in memory as a whole. All exits lead both ways.
+ * <p>
+ * Run it to write a world image:
+ * <pre>
+ * java -cp zuul.jar org.hurlimann.zuul.WorldGenerator maze 10000000 42 maze.img
+ * </pre>
+ */
+public class WorldGenerator implements WorldImage.RoomTables {
+	/**
+	 * Width and height of the blocks of a {@link WorldLayout#CLUSTER} world
+	 */
+	private static final int CLUSTER_SIZE = 8;
+
+	private static final int DIRECTIONS = Direction.VALUES.length;
+
+	// the spawn settings every room gets one of: ordinary, barren and rich rooms
+	private static final int ORDINARY = 0;
+	private static final int BARREN = 1;
+	private static final int RICH = 2;
+	private static final int[] SPAWN_CHANCES = {Room.ITEM_SPAWN_CHANCE, 0, 20};
+	private static final int[] MAX_ITEM_COUNTS = {Integer.MAX_VALUE, 0, 3};
+
+	private static final String[] GRID_DESCRIPTIONS = {
+			"in an open field", "in a meadow", "on a dusty road", "in a small grove", "next to a stream"};
+	// indexed by the number of exits - 1
+	private static final String[] MAZE_DESCRIPTIONS = {
+			"in a dead end of the maze", "in a narrow passage", "at a fork in the passage", "at a crossing of passages"};
+	private static final String[] CLUSTER_DESCRIPTIONS = {
+			"in a hall of an old castle", "in a room of an abandoned farm", "in a cellar of a ruined abbey",
+			"in a chamber of a wizard's tower", "in a workshop of a deserted village"};
+
+	// per hash, so the decisions about a room don't depend on each other
+	private static final long CARVE = 1;
+	private static final long DESCRIPTION = 2;
+	private static final long SPAWN = 3;
+	private static final long DOOR = 4;
+
+	private final WorldLayout layout;
+	private final int roomCount;
+	private final long seed;
+	private final int width;
+	// rows with width rooms, and the rooms in the partial row below them
+	private final int fullRows;
+	private final int lastRowRooms;
+
+	/**
+	 * @param layout    of the world
+	 * @param roomCount number of rooms
+	 * @param seed      of the world, the same seed gives the same world
+	 */
+	WorldGenerator(WorldLayout layout, int roomCount, long seed) {
+		if (roomCount <= 0 || (long) roomCount * DIRECTIONS > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid number of rooms: " + roomCount);
+		}
+		this.layout = layout;
+		this.roomCount = roomCount;
+		this.seed = seed;
+		this.width = (int) Math.ceil(Math.sqrt(roomCount));
+		this.fullRows = roomCount / width;
+		this.lastRowRooms = roomCount % width;
+	}
+
+	/**
+	 * Generates the world in memory.
+	 *
+	 * @return the world
+	 */
+	CompactWorld generate() {
+		int[] exits = new int[roomCount * DIRECTIONS];
+		int[] descriptionIds = new int[roomCount];
+		int[] spawnIds = new int[roomCount];
+		fill(0, roomCount, exits, descriptionIds, spawnIds);
+		return new CompactWorld(roomCount, 0, IntBuffer.wrap(exits), IntBuffer.wrap(descriptionIds),
+				getDescriptions(), IntBuffer.wrap(spawnIds), SPAWN_CHANCES.clone(), MAX_ITEM_COUNTS.clone());
+	}
+
+	/**
+	 * Streams the world into an image, only a chunk of it is in memory at any time.
+	 *
+	 * @param path of the image
+	 * @throws IOException if the image can't be written
+	 */
+	void writeImage(Path path) throws IOException {
+		WorldImage.write(path, roomCount, 0, getDescriptions(), SPAWN_CHANCES.clone(), MAX_ITEM_COUNTS.clone(), this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The rooms are generated in parallel.
+	 */
+	@Override
+	public void fill(int firstRoom, int count, int[] exits, int[] descriptionIds, int[] spawnIds) {
+		IntStream.range(0, count).parallel().forEach(i -> {
+			int room = firstRoom + i;
+			int x = room % width;
+			int y = room / width;
+			int exitCount = 0;
+			for (Direction direction : Direction.VALUES) {
+				int neighbour = getExit(x, y, direction);
+				exits[i * DIRECTIONS + direction.ordinal()] = neighbour;
+				if (neighbour != CompactWorld.NO_EXIT) {
+					exitCount++;
+				}
+			}
+			descriptionIds[i] = getDescriptionId(x, y, exitCount);
+			spawnIds[i] = getSpawnId(x, y);
+		});
+	}
+
+	private String[] getDescriptions() {
+		switch (layout) {
+			case MAZE:
+				return MAZE_DESCRIPTIONS.clone();
+			case CLUSTER:
+				return CLUSTER_DESCRIPTIONS.clone();
+			default:
+				return GRID_DESCRIPTIONS.clone();
+		}
+	}
+
+	private int getExit(int x, int y, Direction direction) {
+		switch (direction) {
+			case NORTH:
+				return y > 0 && isConnectedVertically(x, y - 1) ? id(x, y - 1) : CompactWorld.NO_EXIT;
+			case SOUTH:
+				return isConnectedVertically(x, y) ? id(x, y + 1) : CompactWorld.NO_EXIT;
+			case EAST:
+				return isConnectedHorizontally(x, y) ? id(x + 1, y) : CompactWorld.NO_EXIT;
+			default:
+				return x > 0 && isConnectedHorizontally(x - 1, y) ? id(x - 1, y) : CompactWorld.NO_EXIT;
+		}
+	}
+
+	/**
+	 * @return whether the room at x, y is connected to its eastern neighbour
+	 */
+	private boolean isConnectedHorizontally(int x, int y) {
+		if (!exists(x + 1, y)) {
+			return false;
+		}
+		switch (layout) {
+			case MAZE:
+				return carvesWest(x + 1, y);
+			case CLUSTER:
+				return (x + 1) % CLUSTER_SIZE != 0 || y == doorRow(x / CLUSTER_SIZE, y / CLUSTER_SIZE);
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * @return whether the room at x, y is connected to its southern neighbour
+	 */
+	private boolean isConnectedVertically(int x, int y) {
+		if (!exists(x, y + 1)) {
+			return false;
+		}
+		switch (layout) {
+			case MAZE:
+				return !carvesWest(x, y + 1);
+			case CLUSTER:
+				return (y + 1) % CLUSTER_SIZE != 0 || x == doorColumn(x / CLUSTER_SIZE, y / CLUSTER_SIZE);
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * The maze is carved with the binary tree algorithm: every room but the first one opens a passage either to
+	 * the west or to the north. The first row can only go west and the first column only north.
+	 *
+	 * @return true if the room at x, y opens to the west, false if it opens to the north
+	 */
+	private boolean carvesWest(int x, int y) {
+		if (y == 0 || x == 0) {
+			return x > 0;
+		}
+		return (hash(CARVE, id(x, y)) & 1) == 0;
+	}
+
+	/**
+	 * @return the row of the door between a block and its eastern neighbour
+	 */
+	private int doorRow(int blockX, int blockY) {
+		int top = blockY * CLUSTER_SIZE;
+		int rows = Math.min(top + CLUSTER_SIZE, fullRows) - top;
+		if (rows <= 0) {
+			// the block only has the partial last row
+			return top;
+		}
+		return top + (int) Long.remainderUnsigned(hash(DOOR, 2L * id(blockX, blockY)), rows);
+	}
+
+	/**
+	 * @return the column of the door between a block and its southern neighbour
+	 */
+	private int doorColumn(int blockX, int blockY) {
+		int left = blockX * CLUSTER_SIZE;
+		int below = (blockY + 1) * CLUSTER_SIZE;
+		int columns = Math.min(left + CLUSTER_SIZE, below < fullRows ? width : lastRowRooms) - left;
+		if (columns <= 0) {
+			// there is no block below
+			return -1;
+		}
+		return left + (int) Long.remainderUnsigned(hash(DOOR, 2L * id(blockX, blockY) + 1), columns);
+	}
+
+	private int getDescriptionId(int x, int y, int exitCount) {
+		switch (layout) {
+			case MAZE:
+				return Math.max(exitCount, 1) - 1;
+			case CLUSTER:
+				// all rooms of a block look alike
+				return (int) Long.remainderUnsigned(
+						hash(DESCRIPTION, id(x / CLUSTER_SIZE, y / CLUSTER_SIZE)), CLUSTER_DESCRIPTIONS.length);
+			default:
+				return (int) Long.remainderUnsigned(hash(DESCRIPTION, id(x, y)), GRID_DESCRIPTIONS.length);
+		}
+	}
+
+	/**
+	 * One in ten rooms is barren, one in fifty rich.
+	 */
+	private int getSpawnId(int x, int y) {
+		int roll = (int) Long.remainderUnsigned(hash(SPAWN, id(x, y)), 100);
+		if (roll < 10) {
+			return BARREN;
+		}
+		return roll < 12 ? RICH : ORDINARY;
+	}
+
+	private boolean exists(int x, int y) {
+		return x < width && (y < fullRows || (y == fullRows && x < lastRowRooms));
+	}
+
+	private int id(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * SplitMix64 of the seed, the kind of decision and a position.
+	 */
+	private long hash(long kind, long position) {
+		long z = seed + kind * 0x632be59bd9b4e019L + position * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.err.println("Usage: WorldGenerator <grid|maze|cluster> <rooms> <seed> <image>");
+			System.exit(2);
+		}
+		WorldGenerator generator =
+				new WorldGenerator(WorldLayout.of(args[0]), Integer.parseInt(args[1]), Long.parseLong(args[2]));
+
+		long start = System.nanoTime();
+		generator.writeImage(Paths.get(args[3]));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		System.out.println("Generated " + generator.roomCount + " rooms into " + args[3] + " in " + millis + " ms");
+	}
+}
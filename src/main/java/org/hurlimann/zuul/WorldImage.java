@@ -0,0 +1,222 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary image of a {@link CompactWorld}, laid out so the tables of the world can be used straight from a
+ * memory mapped file. Booting a server with a big world then costs a few page faults instead of parsing text and
+ * building objects.
+ * <p>
+ * All numbers are big endian ints:
+ * <pre>
+ * magic, room count, starting room, description count, spawn settings count
+ * every description: length in bytes, UTF-8 bytes
+ * every spawn setting: spawn chance, most items
+ * padding to a multiple of 4 bytes
+ * exit table: {@link Direction#VALUES} slots per room
+ * description index of every room
+ * spawn settings index of every room
+ * </pre>
+ */
+final class WorldImage {
+	private WorldImage() {
+	}
+
+	private static final int MAGIC = 0x5a554c31; // "ZUL1"
+	private static final int HEADER_SIZE = 5 * Integer.BYTES;
+	private static final int DIRECTIONS = Direction.VALUES.length;
+	// rooms whose tables are written at once
+	private static final int CHUNK_ROOMS = 256 * 1024;
+
+	/**
+	 * Fills the tables of a range of rooms while an image is written.
+	 */
+	interface RoomTables {
+		/**
+		 * Fills the tables of the rooms from firstRoom to firstRoom + count - 1. The first room goes to index 0 of the
+		 * arrays.
+		 *
+		 * @param firstRoom      id of the first room to fill in
+		 * @param count          number of rooms to fill in
+		 * @param exits          {@link Direction#VALUES} slots per room
+		 * @param descriptionIds description index of every room
+		 * @param spawnIds       spawn settings index of every room
+		 */
+		void fill(int firstRoom, int count, int[] exits, int[] descriptionIds, int[] spawnIds);
+	}
+
+	/**
+	 * Writes the image of a world.
+	 *
+	 * @param world to write
+	 * @param path  of the image, replaced if it exists
+	 * @throws IOException if the image can't be written
+	 */
+	static void write(CompactWorld world, Path path) throws IOException {
+		IntBuffer exits = world.getExits();
+		IntBuffer descriptionIds = world.getDescriptionIds();
+		IntBuffer spawnIds = world.getSpawnIds();
+		write(path, world.getRoomCount(), world.getStartingRoom(), world.getDescriptions(), world.getSpawnChances(),
+				world.getMaxItemCounts(), (firstRoom, count, exitsChunk, descriptionIdsChunk, spawnIdsChunk) -> {
+					exits.get(exitsChunk, 0, count * DIRECTIONS);
+					descriptionIds.get(descriptionIdsChunk, 0, count);
+					spawnIds.get(spawnIdsChunk, 0, count);
+				});
+	}
+
+	/**
+	 * Writes the image of a world whose tables are filled in chunk by chunk, so only a chunk of the world has to be
+	 * in memory at any time.
+	 *
+	 * @param path          of the image, replaced if it exists
+	 * @param roomCount     number of rooms
+	 * @param startingRoom  id of the room new players start in
+	 * @param descriptions  the distinct descriptions
+	 * @param spawnChances  spawn chance of every spawn setting
+	 * @param maxItemCounts most items of every spawn setting
+	 * @param tables        filling in the tables of the rooms, called with consecutive ranges of rooms
+	 * @throws IOException if the image can't be written
+	 */
+	static void write(Path path, int roomCount, int startingRoom, String[] descriptions, int[] spawnChances,
+					  int[] maxItemCounts, RoomTables tables) throws IOException {
+		byte[][] encoded = new byte[descriptions.length][];
+		int headerAndTables = HEADER_SIZE + spawnChances.length * 2 * Integer.BYTES;
+		for (int i = 0; i < descriptions.length; i++) {
+			encoded[i] = descriptions[i].getBytes(StandardCharsets.UTF_8);
+			headerAndTables += Integer.BYTES + encoded[i].length;
+		}
+		int padding = padding(headerAndTables);
+
+		ByteBuffer head = ByteBuffer.allocate(headerAndTables + padding);
+		head.putInt(MAGIC)
+				.putInt(roomCount)
+				.putInt(startingRoom)
+				.putInt(descriptions.length)
+				.putInt(spawnChances.length);
+		for (byte[] description : encoded) {
+			head.putInt(description.length).put(description);
+		}
+		for (int i = 0; i < spawnChances.length; i++) {
+			head.putInt(spawnChances[i]).putInt(maxItemCounts[i]);
+		}
+		// the whole buffer including the zeroed padding
+		head.rewind();
+
+		long exitsOffset = head.remaining();
+		long descriptionIdsOffset = exitsOffset + (long) roomCount * DIRECTIONS * Integer.BYTES;
+		long spawnIdsOffset = descriptionIdsOffset + (long) roomCount * Integer.BYTES;
+		if (spawnIdsOffset + (long) roomCount * Integer.BYTES > Integer.MAX_VALUE) {
+			// a bigger image couldn't be mapped in one piece
+			throw new IOException("Too many rooms for a world image: " + roomCount);
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, head, 0);
+
+			int chunkRooms = Math.min(roomCount, CHUNK_ROOMS);
+			int[] exits = new int[chunkRooms * DIRECTIONS];
+			int[] descriptionIds = new int[chunkRooms];
+			int[] spawnIds = new int[chunkRooms];
+			ByteBuffer chunk = ByteBuffer.allocateDirect(exits.length * Integer.BYTES);
+			for (int firstRoom = 0; firstRoom < roomCount; firstRoom += chunkRooms) {
+				int count = Math.min(chunkRooms, roomCount - firstRoom);
+				tables.fill(firstRoom, count, exits, descriptionIds, spawnIds);
+				writeInts(channel, exits, count * DIRECTIONS, chunk,
+						exitsOffset + (long) firstRoom * DIRECTIONS * Integer.BYTES);
+				writeInts(channel, descriptionIds, count, chunk,
+						descriptionIdsOffset + (long) firstRoom * Integer.BYTES);
+				writeInts(channel, spawnIds, count, chunk, spawnIdsOffset + (long) firstRoom * Integer.BYTES);
+			}
+		}
+	}
+
+	/**
+	 * Maps an image into memory. The tables of the world are read from the mapping on demand.
+	 *
+	 * @param path of the image
+	 * @return the world backed by the mapped image
+	 * @throws IOException if the image can't be read or is no valid world image
+	 */
+	static CompactWorld map(Path path) throws IOException {
+		MappedByteBuffer image;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too big for a world image");
+			}
+			// the mapping stays valid once the channel is closed
+			image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if (image.getInt() != MAGIC) {
+				throw new IOException(path + " is no world image");
+			}
+			int roomCount = image.getInt();
+			int startingRoom = image.getInt();
+			String[] descriptions = new String[image.getInt()];
+			int spawnCount = image.getInt();
+
+			for (int i = 0; i < descriptions.length; i++) {
+				byte[] description = new byte[image.getInt()];
+				image.get(description);
+				descriptions[i] = new String(description, StandardCharsets.UTF_8);
+			}
+			int[] spawnChances = new int[spawnCount];
+			int[] maxItemCounts = new int[spawnCount];
+			for (int i = 0; i < spawnCount; i++) {
+				spawnChances[i] = image.getInt();
+				maxItemCounts[i] = image.getInt();
+			}
+
+			int offset = image.position() + padding(image.position());
+			long expectedSize = offset + (long) roomCount * (DIRECTIONS + 2) * Integer.BYTES;
+			if (roomCount < 0 || expectedSize != image.capacity()) {
+				throw new IOException(path + " is truncated or corrupt");
+			}
+			IntBuffer exits = ints(image, offset, roomCount * DIRECTIONS);
+			offset += roomCount * DIRECTIONS * Integer.BYTES;
+			IntBuffer descriptionIds = ints(image, offset, roomCount);
+			offset += roomCount * Integer.BYTES;
+			IntBuffer spawnIds = ints(image, offset, roomCount);
+
+			return new CompactWorld(roomCount, startingRoom, exits, descriptionIds, descriptions, spawnIds,
+					spawnChances, maxItemCounts);
+		} catch (RuntimeException e) {
+			// negative lengths, reads past the end and tables that don't fit together
+			throw new IOException(path + " is no valid world image", e);
+		}
+	}
+
+	private static int padding(int position) {
+		return (Integer.BYTES - position % Integer.BYTES) % Integer.BYTES;
+	}
+
+	private static IntBuffer ints(ByteBuffer image, int offset, int count) {
+		ByteBuffer table = image.duplicate();
+		table.position(offset);
+		table.limit(offset + count * Integer.BYTES);
+		return table.slice().asIntBuffer();
+	}
+
+	private static void writeInts(FileChannel channel, int[] ints, int count, ByteBuffer chunk, long position)
+			throws IOException {
+		chunk.clear();
+		chunk.asIntBuffer().put(ints, 0, count);
+		chunk.limit(count * Integer.BYTES);
+		writeFully(channel, chunk, position);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
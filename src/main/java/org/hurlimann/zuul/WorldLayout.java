@@ -0,0 +1,30 @@
+package org.hurlimann.zuul;
+
+/**
+ * The shapes of the worlds a {@link WorldGenerator} can build. Every layout places the rooms on a grid and connects
+ * all of them, the layouts differ in which neighbours are connected.
+ */
+enum WorldLayout {
+	/**
+	 * Every room is connected to all of its neighbours.
+	 */
+	GRID,
+
+	/**
+	 * A perfect maze, there is exactly one way from any room to any other.
+	 */
+	MAZE,
+
+	/**
+	 * Blocks of densely connected rooms, joined to the neighbouring blocks by a single door each.
+	 */
+	CLUSTER;
+
+	/**
+	 * @param name of the layout, case insensitive
+	 * @return the matching layout
+	 */
+	static WorldLayout of(String name) {
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -0,0 +1,419 @@
+package org.hurlimann.zuul;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * A consistent copy of everything that changes while the game runs: the items lying around in the rooms, the
+ * players with their hit points and inventories, the combats and the id of the next item.
+ * <p>
+ * A snapshot is {@link Capture captured} on the game loop, a slice of the rooms per frame, and only collects
+ * references. Items never change, and the rooms hand out their item lists copy-on-write, see
+ * {@link Room#shareItems()}. Encoding and {@link #write(Path) writing} the snapshot is left to another thread while
+ * the game goes on. The snapshot is written to a temporary file first and renamed once it is complete, so a crash
+ * never leaves a torn snapshot behind.
+ * <p>
+ * All numbers are big endian ints unless noted otherwise:
+ * <pre>
+ * magic, room count, id of the next item, id of the next player (long), first journal segment after the snapshot
+ *     (long), item name count
+ * every item name: length in bytes, UTF-8 bytes
+ * number of rooms with items, every one of them: room id, item count, items
+ * number of players, every one of them: id (long), name, room id, hit points, attack, defense, agility,
+ *                                       item count, items
+ * number of combats, every one of them: ids of both players (long)
+ * an item: id, name index, attack, defense, agility
+ * </pre>
+ * The players are restored without a connection, a replay of the {@link Journal} may still need them.
+ */
+final class WorldSnapshot {
+	private static final int MAGIC = 0x5a534e32; // "ZSN2"
+	// bytes encoded before they are written to the file
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final int roomCount;
+	private final int nextItemId;
+	private final long nextPlayerId;
+	private final long journalSegment;
+	private final int[] roomIds;
+	// the item lists shared by the rooms, they must not be changed
+	private final List<List<Item>> roomItems;
+	private final List<PlayerState> players;
+	private final List<Combat> combats;
+
+	private WorldSnapshot(int roomCount, int nextItemId, long nextPlayerId, long journalSegment, int[] roomIds,
+						  List<List<Item>> roomItems, List<PlayerState> players, List<Combat> combats) {
+		this.roomCount = roomCount;
+		this.nextItemId = nextItemId;
+		this.nextPlayerId = nextPlayerId;
+		this.journalSegment = journalSegment;
+		this.roomIds = roomIds;
+		this.roomItems = roomItems;
+		this.players = players;
+		this.combats = combats;
+	}
+
+	/**
+	 * @return the first segment of the {@link Journal} written after the snapshot
+	 */
+	long getJournalSegment() {
+		return journalSegment;
+	}
+
+	/**
+	 * Writes the snapshot and replaces the one at the path, if any, once it is complete and on disk.
+	 *
+	 * @param path of the snapshot
+	 * @throws IOException if the snapshot can't be written, the one at the path is left alone then
+	 */
+	void write(Path path) throws IOException {
+		Map<String, Integer> names = new LinkedHashMap<>();
+		for (List<Item> items : roomItems) {
+			for (Item item : items) {
+				names.putIfAbsent(item.getName(), names.size());
+			}
+		}
+		for (PlayerState player : players) {
+			for (Item item : player.items) {
+				names.putIfAbsent(item.getName(), names.size());
+			}
+		}
+
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output output = new Output(channel);
+			output.putInt(MAGIC);
+			output.putInt(roomCount);
+			output.putInt(nextItemId);
+			output.putLong(nextPlayerId);
+			output.putLong(journalSegment);
+			output.putInt(names.size());
+			for (String name : names.keySet()) {
+				output.putString(name);
+			}
+
+			output.putInt(roomIds.length);
+			for (int i = 0; i < roomIds.length; i++) {
+				output.putInt(roomIds[i]);
+				List<Item> items = roomItems.get(i);
+				output.putInt(items.size());
+				for (Item item : items) {
+					output.putItem(item, names);
+				}
+			}
+
+			output.putInt(players.size());
+			for (PlayerState player : players) {
+				output.putLong(player.id);
+				output.putString(player.name);
+				output.putInt(player.roomId);
+				output.putInt(player.hitPoints);
+				output.putInt(player.attack);
+				output.putInt(player.defense);
+				output.putInt(player.agility);
+				output.putInt(player.items.length);
+				for (Item item : player.items) {
+					output.putItem(item, names);
+				}
+			}
+
+			output.putInt(combats.size());
+			for (Combat combat : combats) {
+				output.putLong(combat.getPlayer1().getId());
+				output.putLong(combat.getPlayer2().getId());
+			}
+			output.flush();
+			channel.force(true);
+		}
+		Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Restores a snapshot into a world that is still empty. Must be called before the game starts.
+	 *
+	 * @param path     of the snapshot
+	 * @param world    the snapshot was taken of
+	 * @param sessions opening a session for the player with the given id, it has no connection
+	 * @return the first segment of the {@link Journal} to replay on top of the snapshot
+	 * @throws IOException if the snapshot can't be read, is no valid snapshot or was taken of another world
+	 */
+	static long load(Path path, World world, LongFunction<Session> sessions) throws IOException {
+		MappedByteBuffer snapshot;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too big for a snapshot");
+			}
+			snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if (snapshot.getInt() != MAGIC) {
+				throw new IOException(path + " is no snapshot");
+			}
+			int roomCount = snapshot.getInt();
+			if (roomCount != world.getRoomCount()) {
+				throw new IOException(path + " is a snapshot of another world with " + roomCount + " rooms");
+			}
+			int nextItemId = snapshot.getInt();
+			long nextPlayerId = snapshot.getLong();
+			long journalSegment = snapshot.getLong();
+			String[] names = new String[snapshot.getInt()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = getString(snapshot);
+			}
+
+			int roomsWithItems = snapshot.getInt();
+			for (int i = 0; i < roomsWithItems; i++) {
+				Room room = world.getRoom(snapshot.getInt());
+				for (Item item : getItems(snapshot, names)) {
+					room.addItem(item);
+				}
+			}
+
+			PlayerRegistry registry = world.getPlayers();
+			int playerCount = snapshot.getInt();
+			for (int i = 0; i < playerCount; i++) {
+				long id = snapshot.getLong();
+				String name = getString(snapshot);
+				Room room = world.getRoom(snapshot.getInt());
+				Session session = sessions.apply(id);
+				Player player = new Player(id, name, world, room, session);
+				player.restore(snapshot.getInt(), snapshot.getInt(), snapshot.getInt(), snapshot.getInt(),
+						getItems(snapshot, names));
+				session.setPlayer(player);
+				if (!registry.register(player)) {
+					throw new IOException(path + " has two players named " + name);
+				}
+				room.addPlayer(player);
+			}
+
+			int combatCount = snapshot.getInt();
+			for (int i = 0; i < combatCount; i++) {
+				Player player1 = registry.byId(snapshot.getLong());
+				Player player2 = registry.byId(snapshot.getLong());
+				player1.getRoom().addCombat(new Combat(player1, player2));
+			}
+			if (snapshot.hasRemaining()) {
+				throw new IOException(path + " has trailing bytes");
+			}
+
+			registry.setNextId(nextPlayerId);
+			RandomItemGenerator.setNextItemId(nextItemId);
+			return journalSegment;
+		} catch (RuntimeException e) {
+			// negative counts, reads past the end, rooms and players that don't exist
+			throw new IOException(path + " is no valid snapshot", e);
+		}
+	}
+
+	private static List<Item> getItems(ByteBuffer snapshot, String[] names) {
+		int count = snapshot.getInt();
+		List<Item> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int id = snapshot.getInt();
+			String name = names[snapshot.getInt()];
+			items.add(new Item(id, name, snapshot.getInt(), snapshot.getInt(), snapshot.getInt()));
+		}
+		return items;
+	}
+
+	private static String getString(ByteBuffer snapshot) {
+		byte[] bytes = new byte[snapshot.getInt()];
+		snapshot.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A snapshot in the making. It shows the world as it was when the capture started, although the rooms are
+	 * collected over several frames: a room whose items are about to change is collected right away, before the
+	 * change, unless it was collected already. Players and combats are few, they are copied at the start.
+	 * <p>
+	 * Rooms materialized after the start had no items then and are left out.
+	 */
+	static final class Capture {
+		private final List<Room> rooms;
+		private final int roomCount;
+		private final int epoch;
+		private final int nextItemId;
+		private final long nextPlayerId;
+		private final long journalSegment;
+		private final int materializedRooms;
+		private final List<PlayerState> players = new ArrayList<>();
+		private final List<Combat> combats = new ArrayList<>();
+		private int[] roomIds = new int[16];
+		private final List<List<Item>> roomItems = new ArrayList<>();
+		private int nextRoom = 0;
+
+		/**
+		 * Starts a capture. Must be called on the game loop.
+		 *
+		 * @param world          to capture
+		 * @param epoch          number of the capture, different from that of any capture before
+		 * @param active         the rooms with players or combats in them
+		 * @param journalSegment the first segment of the {@link Journal} written after the snapshot
+		 */
+		Capture(World world, int epoch, List<Room> active, long journalSegment) {
+			this.rooms = world.getRooms();
+			this.roomCount = world.getRoomCount();
+			this.epoch = epoch;
+			this.nextItemId = RandomItemGenerator.getNextItemId();
+			this.nextPlayerId = world.getPlayers().getNextId();
+			this.journalSegment = journalSegment;
+			this.materializedRooms = rooms.size();
+			for (Player player : world.getPlayers().getPlayers()) {
+				if (!player.isToDelete()) {
+					players.add(new PlayerState(player));
+				}
+			}
+			for (Room room : active) {
+				for (Combat combat : room.getCombats()) {
+					if (!combat.getPlayer1().isToDelete() && !combat.getPlayer2().isToDelete()) {
+						combats.add(combat);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Collects a room unless it was collected already.
+		 *
+		 * @param room to collect
+		 */
+		void add(Room room) {
+			if (room.getSnapshotEpoch() == epoch) {
+				return;
+			}
+			room.setSnapshotEpoch(epoch);
+			List<Item> items = room.shareItems();
+			if (items != null) {
+				if (roomItems.size() == roomIds.length) {
+					roomIds = Arrays.copyOf(roomIds, roomIds.length * 2);
+				}
+				roomIds[roomItems.size()] = room.getId();
+				roomItems.add(items);
+			}
+		}
+
+		/**
+		 * Collects the next slice of rooms.
+		 *
+		 * @param maxRooms most rooms to look at
+		 * @return true once all rooms are collected
+		 */
+		boolean advance(int maxRooms) {
+			int end = (int) Math.min(materializedRooms, (long) nextRoom + maxRooms);
+			for (; nextRoom < end; nextRoom++) {
+				add(rooms.get(nextRoom));
+			}
+			return nextRoom == materializedRooms;
+		}
+
+		/**
+		 * @return the snapshot, it may be written by any thread
+		 */
+		WorldSnapshot finish() {
+			return new WorldSnapshot(roomCount, nextItemId, nextPlayerId, journalSegment,
+					Arrays.copyOf(roomIds, roomItems.size()), roomItems, players, combats);
+		}
+	}
+
+	/**
+	 * The state of a player when the snapshot was taken.
+	 */
+	private static final class PlayerState {
+		private final long id;
+		private final String name;
+		private final int roomId;
+		private final int hitPoints;
+		private final int attack;
+		private final int defense;
+		private final int agility;
+		private final Item[] items;
+
+		PlayerState(Player player) {
+			this.id = player.getId();
+			this.name = player.getName();
+			this.roomId = player.getRoom().getId();
+			this.hitPoints = player.getHitPoints();
+			this.attack = player.getAttack();
+			this.defense = player.getDefense();
+			this.agility = player.getAgility();
+			this.items = player.getItems().toArray(new Item[0]);
+		}
+	}
+
+	/**
+	 * Encodes into a buffer that is written to the file whenever it is full.
+	 */
+	private static final class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(Long.BYTES);
+			buffer.putLong(value);
+		}
+
+		void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			if (bytes.length > buffer.capacity()) {
+				flush();
+				writeFully(ByteBuffer.wrap(bytes));
+			} else {
+				ensure(bytes.length);
+				buffer.put(bytes);
+			}
+		}
+
+		void putItem(Item item, Map<String, Integer> names) throws IOException {
+			ensure(5 * Integer.BYTES);
+			buffer.putInt(item.getId())
+					.putInt(names.get(item.getName()))
+					.putInt(item.getAttack())
+					.putInt(item.getDefense())
+					.putInt(item.getAgility());
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		private void writeFully(ByteBuffer bytes) throws IOException {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hurlimann.zuul.WorldDescription.describe;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+	@TempDir
+	Path directory;
+
+	private final TimerWheel timers = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), System::nanoTime);
+
+	private static void writeSnapshot(World world, long journalSegment, Path path) throws IOException {
+		world.startSnapshot(journalSegment);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(path);
+	}
+
+	@Test
+	void replaysToTheSameWorld() throws Exception {
+		Simulator simulator = new Simulator(Game.loadWorld(), 20, 42);
+		GameEngine engine = simulator.getEngine();
+		Path snapshot = directory.resolve("world.snap");
+		writeSnapshot(engine.getWorld(), 0, snapshot);
+		String start = describe(engine.getWorld());
+
+		Journal journal = new Journal(directory, 0, timers);
+		engine.setJournal(journal);
+		simulator.run(300);
+		journal.close();
+		String expected = describe(engine.getWorld());
+		assertNotEquals(start, expected);
+
+		GameEngine replayed = new GameEngine(Game.loadWorld());
+		assertEquals(0, replayed.restoreSnapshot(snapshot));
+		assertTrue(replayed.replayJournal(directory, 0) > 300);
+		assertEquals(expected, describe(replayed.getWorld()));
+		assertEquals(engine.getFrame(), replayed.getFrame());
+		assertEquals(engine.getPlayerCount(), replayed.getPlayerCount());
+	}
+
+	@Test
+	void replaysFromEverySnapshotAcrossSegments() throws Exception {
+		Simulator simulator = new Simulator(Game.loadWorld(), 10, 7);
+		GameEngine engine = simulator.getEngine();
+		Path first = directory.resolve("first.snap");
+		writeSnapshot(engine.getWorld(), 0, first);
+
+		Journal journal = new Journal(directory, 0, timers);
+		engine.setJournal(journal);
+		simulator.run(100);
+		Path second = directory.resolve("second.snap");
+		writeSnapshot(engine.getWorld(), journal.roll(), second);
+		simulator.run(100);
+		journal.close();
+		String expected = describe(engine.getWorld());
+		assertEquals(Arrays.asList(0L, 1L), Journal.segments(directory));
+
+		for (Path snapshot : new Path[]{first, second}) {
+			GameEngine replayed = new GameEngine(Game.loadWorld());
+			replayed.replayJournal(directory, replayed.restoreSnapshot(snapshot));
+			assertEquals(expected, describe(replayed.getWorld()), "replayed from " + snapshot.getFileName());
+		}
+	}
+
+	@Test
+	void stopsAtABatchTornOff() throws Exception {
+		Simulator simulator = new Simulator(Game.loadWorld(), 10, 3);
+		GameEngine engine = simulator.getEngine();
+		Path snapshot = directory.resolve("world.snap");
+		writeSnapshot(engine.getWorld(), 0, snapshot);
+
+		Journal journal = new Journal(directory, 0, timers);
+		engine.setJournal(journal);
+		simulator.run(50);
+		journal.flush();
+		String beforeLastBatch = describe(engine.getWorld());
+		simulator.run(50);
+		journal.close();
+
+		// cut the last batch short like a crash in the middle of writing it
+		Path segment = directory.resolve(String.format("%016d.journal", 0));
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+
+		GameEngine replayed = new GameEngine(Game.loadWorld());
+		replayed.replayJournal(directory, replayed.restoreSnapshot(snapshot));
+		assertEquals(beforeLastBatch, describe(replayed.getWorld()));
+	}
+
+	@Test
+	void rejectsAJournalThatDoesNotFitTheWorld() throws Exception {
+		Simulator simulator = new Simulator(Game.loadWorld(), 10, 5);
+		GameEngine engine = simulator.getEngine();
+		Journal journal = new Journal(directory, 0, timers);
+		engine.setJournal(journal);
+		simulator.run(100);
+		journal.close();
+
+		// without the snapshot the players of the journal get other ids
+		GameEngine replayed = new GameEngine(Game.loadWorld());
+		assertThrows(IOException.class, () -> replayed.replayJournal(directory, 0));
+	}
+}
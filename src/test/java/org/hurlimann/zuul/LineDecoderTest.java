@@ -0,0 +1,134 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineDecoderTest {
+	private static final String TOO_LONG = "<too long>";
+
+	private final List<String> lines = new ArrayList<>();
+	private final LineDecoder.Handler handler = new LineDecoder.Handler() {
+		@Override
+		public boolean onLine(CharSequence line) {
+			lines.add(line.toString());
+			return !line.toString().equals("stop");
+		}
+
+		@Override
+		public void onLineTooLong() {
+			lines.add(TOO_LONG);
+		}
+	};
+
+	private boolean decode(LineDecoder decoder, String input) throws Exception {
+		return decoder.decode(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), handler);
+	}
+
+	@Test
+	void splitsSeveralLinesOfOneRead() throws Exception {
+		decode(new LineDecoder(16), "look\ngo north\n");
+		assertEquals(Arrays.asList("look", "go north"), lines);
+	}
+
+	@Test
+	void joinsALineSplitOverReads() throws Exception {
+		LineDecoder decoder = new LineDecoder(16);
+		decode(decoder, "go no");
+		assertTrue(lines.isEmpty());
+		decode(decoder, "rth\nlo");
+		decode(decoder, "ok\n");
+		assertEquals(Arrays.asList("go north", "look"), lines);
+	}
+
+	@Test
+	void stripsCarriageReturns() throws Exception {
+		decode(new LineDecoder(16), "look\r\nhelp\r\n");
+		assertEquals(Arrays.asList("look", "help"), lines);
+	}
+
+	@Test
+	void keepsALineOfMaximumLengthWithCrlf() throws Exception {
+		decode(new LineDecoder(4), "look\r\n");
+		assertEquals(Collections.singletonList("look"), lines);
+	}
+
+	@Test
+	void keepsALineOfMaximumLengthSplitBeforeTheLineFeed() throws Exception {
+		LineDecoder decoder = new LineDecoder(4);
+		decode(decoder, "look\r");
+		decode(decoder, "\n");
+		assertEquals(Collections.singletonList("look"), lines);
+	}
+
+	@Test
+	void discardsOverlongLines() throws Exception {
+		decode(new LineDecoder(4), "looks\nlooking around\r\nhelp\n");
+		assertEquals(Arrays.asList(TOO_LONG, TOO_LONG, "help"), lines);
+	}
+
+	@Test
+	void discardsAnOverlongLineSplitOverReads() throws Exception {
+		LineDecoder decoder = new LineDecoder(4);
+		decode(decoder, "look a");
+		decode(decoder, "round\nhelp\n");
+		assertEquals(Arrays.asList(TOO_LONG, "help"), lines);
+	}
+
+	@Test
+	void reportsEmptyLines() throws Exception {
+		decode(new LineDecoder(4), "\n\r\nhelp\n");
+		assertEquals(Arrays.asList("", "", "help"), lines);
+	}
+
+	@Test
+	void decodesUtf8() throws Exception {
+		decode(new LineDecoder(32), "say grüezi\n");
+		assertEquals(Collections.singletonList("say grüezi"), lines);
+	}
+
+	@Test
+	void stopsWhenTheHandlerAsksTo() throws Exception {
+		ByteBuffer input = ByteBuffer.wrap("stop\nlook\n".getBytes(StandardCharsets.UTF_8));
+		assertFalse(new LineDecoder(16).decode(input, handler));
+		assertEquals(Collections.singletonList("stop"), lines);
+		assertEquals(5, input.position());
+	}
+
+	@Test
+	void leavesTheBufferAloneOnceTheHandlerStopped() throws Exception {
+		ByteBuffer input = ByteBuffer.wrap("say secret\nquit\nlook\n".getBytes(StandardCharsets.UTF_8));
+		// the handler closes the connection, whose buffer is handed to the next one and filled by its read
+		LineDecoder.Handler closing = new LineDecoder.Handler() {
+			@Override
+			public boolean onLine(CharSequence line) {
+				lines.add(line.toString());
+				if (!line.toString().equals("quit")) {
+					return true;
+				}
+				input.clear();
+				input.put("help\n".getBytes(StandardCharsets.UTF_8));
+				input.flip();
+				return false;
+			}
+
+			@Override
+			public void onLineTooLong() {
+				lines.add(TOO_LONG);
+			}
+		};
+		assertFalse(new LineDecoder(16).decode(input, closing));
+		assertEquals(Arrays.asList("say secret", "quit"), lines);
+		assertEquals(0, input.position());
+		assertEquals(5, input.limit());
+	}
+}
@@ -0,0 +1,84 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParserTest {
+	private final Parser parser = new Parser();
+
+	@Test
+	void parsesASingleWord() {
+		Command command = parser.getCommand("look");
+		assertEquals(CommandWord.LOOK, command.getCommandWord());
+		assertFalse(command.hasSecondWord());
+		assertNull(command.getSecondWord());
+		assertNull(command.getRest());
+	}
+
+	@Test
+	void parsesTwoWords() {
+		Command command = parser.getCommand("go north");
+		assertEquals(CommandWord.GO, command.getCommandWord());
+		assertTrue(command.hasSecondWord());
+		assertEquals("north", command.getSecondWord());
+		assertEquals("", command.getRest());
+	}
+
+	@Test
+	void keepsTheRestOfTheLine() {
+		Command command = parser.getCommand("say hello  to   everybody");
+		assertEquals(CommandWord.SAY, command.getCommandWord());
+		assertEquals("hello", command.getSecondWord());
+		assertEquals("to   everybody", command.getRest());
+	}
+
+	@Test
+	void ignoresSurroundingWhitespace() {
+		Command command = parser.getCommand(" \tattack  player1 \t ");
+		assertEquals(CommandWord.ATTACK, command.getCommandWord());
+		assertEquals("player1", command.getSecondWord());
+		assertEquals("", command.getRest());
+	}
+
+	@Test
+	void marksUnknownWords() {
+		assertTrue(parser.getCommand("dance").isUnknown());
+		assertTrue(parser.getCommand("?").isUnknown());
+		assertTrue(parser.getCommand("Look").isUnknown());
+		assertTrue(parser.getCommand("lookout").isUnknown());
+		assertTrue(parser.getCommand("loo").isUnknown());
+	}
+
+	@Test
+	void marksEmptyLinesUnknown() {
+		for (String line : new String[]{"", "   ", "\t"}) {
+			Command command = parser.getCommand(line);
+			assertTrue(command.isUnknown());
+			assertFalse(command.hasSecondWord());
+		}
+	}
+
+	@Test
+	void parsesALineInABuffer() {
+		StringBuilder line = new StringBuilder("pickup 12");
+		Command command = parser.getCommand(line);
+		assertEquals(CommandWord.PICKUP, command.getCommandWord());
+		assertEquals("12", command.getSecondWord());
+	}
+
+	@Test
+	void reusesItsCommand() {
+		Command first = parser.getCommand("go north");
+		assertEquals("north", first.getSecondWord());
+		Command second = parser.getCommand("quit");
+		assertSame(first, second);
+		assertEquals(CommandWord.QUIT, second.getCommandWord());
+		assertFalse(second.hasSecondWord());
+		assertNull(second.getSecondWord());
+	}
+}
@@ -0,0 +1,25 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulatorTest {
+	@Test
+	void countsTheItemsSpawnedInItsOwnWorld() throws IOException {
+		long[] spawned = new long[2];
+		for (int run = 0; run < spawned.length; run++) {
+			Simulator simulator = new Simulator(Game.loadWorld(), 20, 42);
+			simulator.run(300);
+			World world = simulator.getEngine().getWorld();
+			spawned[run] = world.getSpawnedItemCount();
+			assertTrue(world.getItemCount() <= spawned[run]);
+		}
+		// the same seed spawns the same items, however many worlds the process had before
+		assertTrue(spawned[0] > 0);
+		assertEquals(spawned[0], spawned[1]);
+	}
+}
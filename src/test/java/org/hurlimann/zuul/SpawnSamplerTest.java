@@ -0,0 +1,115 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpawnSamplerTest {
+	private static final int ROOMS = 10_000;
+	private static final int FRAMES = 1_000;
+
+	private final SpawnSampler sampler = new SpawnSampler(new GameRandom(42));
+
+	@Test
+	void isEmptyWithoutChances() {
+		assertTrue(sampler.isEmpty());
+		sampler.addSpawnChance(0);
+		assertTrue(sampler.isEmpty());
+		sampler.addSpawnChance(1);
+		assertFalse(sampler.isEmpty());
+	}
+
+	@Test
+	void visitsEveryRoomIfItemsSpawnForSure() {
+		sampler.addSpawnChance(1000);
+		for (long roomId = -1; roomId < 100; roomId++) {
+			assertEquals(roomId + 1, sampler.next(roomId));
+			assertTrue(sampler.accept(1000));
+		}
+	}
+
+	@Test
+	void capsChancesAtCertainty() {
+		sampler.addSpawnChance(5000);
+		assertEquals(0, sampler.next(-1));
+		assertTrue(sampler.accept(5000));
+	}
+
+	@Test
+	void spawnsWithTheChanceOfTheRoom() {
+		sampler.addSpawnChance(10);
+		long spawned = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (long roomId = sampler.next(-1); roomId < ROOMS; roomId = sampler.next(roomId)) {
+				if (sampler.accept(10)) {
+					spawned++;
+				}
+			}
+		}
+		// 1% of 10 million trials, about 100000 with a standard deviation of 315
+		assertEquals(0.01, spawned / (double) ROOMS / FRAMES, 0.0005);
+	}
+
+	@Test
+	void skipsTheRoomsInBetween() {
+		sampler.addSpawnChance(1);
+		long candidates = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			long previous = -1;
+			for (long roomId = sampler.next(-1); roomId < ROOMS; roomId = sampler.next(roomId)) {
+				assertTrue(roomId > previous);
+				candidates++;
+				previous = roomId;
+			}
+		}
+		// a chance of 0.1% looks at 10 of the 10000 rooms per frame
+		assertEquals(10, candidates / (double) FRAMES, 0.5);
+	}
+
+	@Test
+	void jumpsGeometricallyDistributedDistances() {
+		sampler.addSpawnChance(1);
+		int jumps = 100_000;
+		long roomId = -1;
+		int firstRoomCandidates = 0;
+		for (int i = 0; i < jumps; i++) {
+			long next = sampler.next(roomId);
+			if (next == roomId + 1) {
+				firstRoomCandidates++;
+			}
+			roomId = next;
+		}
+		// one candidate every 1000 rooms on average, and the very next room with a chance of 0.1%
+		assertEquals(1000, (roomId + 1) / (double) jumps, 20);
+		assertEquals(100, firstRoomCandidates, 40);
+	}
+
+	@Test
+	void keepsRoomsWithLowerChancesInProportion() {
+		sampler.addSpawnChance(50);
+		sampler.addSpawnChance(10);
+		long[] spawned = new long[2];
+		for (int frame = 0; frame < FRAMES; frame++) {
+			for (long roomId = sampler.next(-1); roomId < ROOMS; roomId = sampler.next(roomId)) {
+				// even rooms spawn with 5%, odd ones with 1%
+				int parity = (int) (roomId % 2);
+				if (sampler.accept(parity == 0 ? 50 : 10)) {
+					spawned[parity]++;
+				}
+			}
+		}
+		double trials = ROOMS / 2.0 * FRAMES;
+		assertEquals(0.05, spawned[0] / trials, 0.001);
+		assertEquals(0.01, spawned[1] / trials, 0.0005);
+	}
+
+	@Test
+	void neverSpawnsInRoomsWithoutChance() {
+		sampler.addSpawnChance(500);
+		for (int i = 0; i < 10_000; i++) {
+			assertFalse(sampler.accept(0));
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+	private static final long TICK = 1_000;
+
+	private long now = 0;
+	private final TimerWheel wheel = new TimerWheel(TICK, () -> now);
+	private final List<Long> fired = new ArrayList<>();
+
+	private TimerWheel.Timer schedule(long ticks) {
+		return wheel.schedule(() -> fired.add(now / TICK), ticks * TICK, TimeUnit.NANOSECONDS);
+	}
+
+	private void advanceTo(long tick) {
+		now = tick * TICK;
+		wheel.advance();
+	}
+
+	@Test
+	void firesOnTheTickOfTheDeadline() {
+		for (long ticks : new long[]{1, 63, 64, 65, 4095, 4096, 10_000, 300_000}) {
+			fired.clear();
+			long start = now / TICK;
+			schedule(ticks);
+			advanceTo(start + ticks - 1);
+			assertTrue(fired.isEmpty(), "fired early after " + ticks + " ticks");
+			advanceTo(start + ticks);
+			assertEquals(Collections.singletonList(start + ticks), fired);
+			assertEquals(0, wheel.size());
+		}
+	}
+
+	@Test
+	void firesInTheOrderOfTheDeadlines() {
+		long[] deadlines = {70_000, 5, 4_200, 64, 1_000_000, 130, 63};
+		for (long deadline : deadlines) {
+			schedule(deadline);
+		}
+		for (long tick = 1; tick <= 1_000_000; tick += 997) {
+			advanceTo(tick);
+		}
+		advanceTo(1_000_000);
+		assertEquals(deadlines.length, fired.size());
+		for (int i = 1; i < fired.size(); i++) {
+			assertTrue(fired.get(i - 1) <= fired.get(i), "out of order: " + fired);
+		}
+		// never early, at most as late as the clock was looked at
+		assertTrue(fired.get(0) >= 5);
+		assertEquals(1_000_000L, fired.get(fired.size() - 1));
+	}
+
+	@Test
+	void sleepsUntilTheTimerOfAHigherLevelCascades() {
+		schedule(10_000);
+		// on the third level until the tick 8192 cascades its slot down
+		assertEquals(8_192 * TICK, wheel.nanosUntilNextEvent());
+		advanceTo(8_192);
+		// on the second level until 9984
+		assertEquals((9_984 - 8_192) * TICK, wheel.nanosUntilNextEvent());
+		advanceTo(9_984);
+		assertEquals(16 * TICK, wheel.nanosUntilNextEvent());
+		advanceTo(10_000);
+		assertEquals(Collections.singletonList(10_000L), fired);
+		assertEquals(Long.MAX_VALUE, wheel.nanosUntilNextEvent());
+	}
+
+	@Test
+	void sleepsUntilTheNextTimerOfTheLowestLevelInTheNextTurn() {
+		advanceTo(60);
+		schedule(10);
+		assertEquals(10 * TICK, wheel.nanosUntilNextEvent());
+	}
+
+	@Test
+	void prefersTheEarliestEventOfAllLevels() {
+		advanceTo(10);
+		// the second level cascades at 64, before the first level's timer at 70 is due
+		schedule(60);
+		schedule(64);
+		assertEquals(54 * TICK, wheel.nanosUntilNextEvent());
+		advanceTo(64);
+		assertTrue(fired.isEmpty());
+		assertEquals(6 * TICK, wheel.nanosUntilNextEvent());
+		advanceTo(70);
+		assertEquals(Collections.singletonList(70L), fired);
+		advanceTo(74);
+		assertEquals(Arrays.asList(70L, 74L), fired);
+	}
+
+	@Test
+	void firesManyTimersOnTheFirstAdvanceAfterTheirDeadline() {
+		Random random = new Random(42);
+		// deadline and tick fired at of every pending timer
+		List<long[]> pending = new ArrayList<>();
+		long tick = 0;
+		for (int round = 0; round < 2_000; round++) {
+			for (int i = random.nextInt(5); i > 0; i--) {
+				long[] timer = {tick + 1 + (long) Math.pow(2, random.nextDouble() * 24), -1};
+				wheel.schedule(() -> timer[1] = now / TICK, (timer[0] - tick) * TICK, TimeUnit.NANOSECONDS);
+				pending.add(timer);
+			}
+			tick += 1 + random.nextInt(20_000);
+			advanceTo(tick);
+			for (Iterator<long[]> i = pending.iterator(); i.hasNext(); ) {
+				long[] timer = i.next();
+				if (timer[0] <= tick) {
+					assertEquals(tick, timer[1], "deadline " + timer[0]);
+					i.remove();
+				} else {
+					assertEquals(-1, timer[1], "deadline " + timer[0]);
+				}
+			}
+			assertEquals(pending.size(), wheel.size());
+		}
+	}
+
+	@Test
+	void doesNotFireCancelledTimers() {
+		TimerWheel.Timer cancelled = schedule(100);
+		TimerWheel.Timer kept = schedule(100);
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertEquals(1, wheel.size());
+		advanceTo(100);
+		assertEquals(1, fired.size());
+		assertFalse(kept.isPending());
+		assertFalse(kept.cancel());
+	}
+
+	@Test
+	void letsATaskCancelATimerOfTheSameTick() {
+		TimerWheel.Timer second = schedule(5);
+		wheel.schedule(second::cancel, 5 * TICK, TimeUnit.NANOSECONDS);
+		now = 5 * TICK;
+		assertEquals(1, wheel.advance());
+		assertTrue(fired.isEmpty());
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,48 @@
+package org.hurlimann.zuul;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Describes everything a {@link WorldSnapshot} and a replay of the {@link Journal} restore, as text: two worlds in
+ * the same state have the same description, and a test that fails shows where they differ.
+ */
+final class WorldDescription {
+	private WorldDescription() {
+	}
+
+	static String describe(World world) {
+		StringBuilder description = new StringBuilder();
+		description.append("next item ").append(RandomItemGenerator.getNextItemId())
+				.append(", next player ").append(world.getPlayers().getNextId())
+				.append(", items ").append(world.getItemCount()).append('\n');
+
+		List<Room> rooms = new ArrayList<>(world.getRooms());
+		rooms.sort(Comparator.comparingInt(Room::getId));
+		for (Room room : rooms) {
+			if (!room.getItems().isEmpty()) {
+				description.append("room ").append(room.getId()).append(' ').append(room.getItems()).append('\n');
+			}
+			for (Combat combat : room.getCombats()) {
+				if (!combat.getPlayer1().isToDelete() && !combat.getPlayer2().isToDelete()) {
+					description.append("combat ").append(combat.getPlayer1().getId())
+							.append(" vs ").append(combat.getPlayer2().getId()).append('\n');
+				}
+			}
+		}
+
+		List<Player> players = new ArrayList<>(world.getPlayers().getPlayers());
+		players.sort(Comparator.comparingLong(Player::getId));
+		for (Player player : players) {
+			if (!player.isToDelete()) {
+				description.append("player ").append(player.getId()).append(' ').append(player.getName())
+						.append(" in ").append(player.getRoom().getId())
+						.append(", ").append(player.getHitPoints()).append(" HP, stats ")
+						.append(player.getAttack()).append('/').append(player.getDefense()).append('/')
+						.append(player.getAgility()).append(' ').append(player.getItems()).append('\n');
+			}
+		}
+		return description.toString();
+	}
+}
@@ -0,0 +1,102 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WorldImageTest {
+	@TempDir
+	Path directory;
+
+	/**
+	 * A world whose header is a description of some length away from a multiple of 4 bytes.
+	 */
+	private static CompactWorld world(String description) {
+		return new CompactWorld.Builder(3)
+				.setStartingRoom(1)
+				.setDescription(0, description)
+				.setDescription(1, "in the hall")
+				.setDescription(2, description)
+				.setExit(0, Direction.EAST, 1)
+				.setExit(1, Direction.WEST, 0)
+				.setExit(1, Direction.NORTH, 2)
+				.setExit(2, Direction.SOUTH, 1)
+				.setSpawn(2, 50, 3)
+				.build();
+	}
+
+	@Test
+	void mapsWhatWasWrittenWithEveryPadding() throws IOException {
+		// the header is 20 bytes, three descriptions and two spawn settings
+		int fixedHeader = 20 + 3 * Integer.BYTES + "in the hall".length() + 2 * 2 * Integer.BYTES;
+		for (String description : new String[]{"in a cellar", "in a cellar!", "in a cellar!!", "in a cellar!!!"}) {
+			assertRoundTrip(world(description), fixedHeader + description.length());
+		}
+	}
+
+	@Test
+	void mapsMultiByteDescriptions() throws IOException {
+		assertRoundTrip(world("in der Küche"), -1);
+	}
+
+	@Test
+	void mapsAnEmptyWorld() throws IOException {
+		CompactWorld world = new CompactWorld.Builder(0).build();
+		Path path = directory.resolve("empty.img");
+		WorldImage.write(world, path);
+		assertEquals(0, WorldImage.map(path).getRoomCount());
+	}
+
+	@Test
+	void rejectsATruncatedImage() throws IOException {
+		Path path = directory.resolve("truncated.img");
+		WorldImage.write(world("in a cellar"), path);
+		byte[] image = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(image, image.length - 1));
+		assertThrows(IOException.class, () -> WorldImage.map(path));
+	}
+
+	@Test
+	void rejectsOtherFiles() throws IOException {
+		Path path = directory.resolve("other.img");
+		Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+		assertThrows(IOException.class, () -> WorldImage.map(path));
+	}
+
+	/**
+	 * @param headerSize expected bytes before the padding, -1 to not check the size of the image
+	 */
+	private void assertRoundTrip(CompactWorld expected, int headerSize) throws IOException {
+		Path path = directory.resolve("world.img");
+		WorldImage.write(expected, path);
+		if (headerSize >= 0) {
+			int padded = (headerSize + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
+			int tables = expected.getRoomCount() * (Direction.VALUES.length + 2) * Integer.BYTES;
+			assertEquals(padded + tables, Files.size(path));
+		}
+
+		CompactWorld actual = WorldImage.map(path);
+		assertEquals(expected.getRoomCount(), actual.getRoomCount());
+		assertEquals(expected.getStartingRoom(), actual.getStartingRoom());
+		assertArrayEquals(expected.getDescriptions(), actual.getDescriptions());
+		assertArrayEquals(expected.getSpawnChances(), actual.getSpawnChances());
+		assertArrayEquals(expected.getMaxItemCounts(), actual.getMaxItemCounts());
+		for (int room = 0; room < expected.getRoomCount(); room++) {
+			assertEquals(expected.getDescription(room), actual.getDescription(room));
+			assertEquals(expected.getSpawnChance(room), actual.getSpawnChance(room));
+			assertEquals(expected.getMaxItemCount(room), actual.getMaxItemCount(room));
+			for (Direction direction : Direction.VALUES) {
+				assertEquals(expected.getExit(room, direction), actual.getExit(room, direction),
+						"exit " + direction + " of room " + room);
+			}
+		}
+	}
+}
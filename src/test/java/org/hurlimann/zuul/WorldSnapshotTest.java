@@ -0,0 +1,113 @@
+package org.hurlimann.zuul;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hurlimann.zuul.WorldDescription.describe;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldSnapshotTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	void restoresTheWorldItWasTakenOf() throws IOException {
+		Simulator simulator = new Simulator(Game.loadWorld(), 20, 42);
+		simulator.run(300);
+		World world = simulator.getEngine().getWorld();
+		String expected = describe(world);
+		assertTrue(expected.contains("player "));
+		assertTrue(expected.contains("combat "));
+		assertTrue(expected.contains("Item{"));
+
+		Path path = directory.resolve("world.snap");
+		world.startSnapshot(7);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(path);
+		assertFalse(Files.exists(path.resolveSibling("world.snap.tmp")));
+
+		GameEngine restored = new GameEngine(Game.loadWorld());
+		assertEquals(7, restored.restoreSnapshot(path));
+		assertEquals(expected, describe(restored.getWorld()));
+		assertEquals(simulator.getEngine().getPlayerCount(), restored.getPlayerCount());
+	}
+
+	@Test
+	void showsTheWorldAsItWasWhenTheCaptureStarted() throws IOException {
+		Simulator simulator = new Simulator(Game.loadWorld(), 20, 7);
+		simulator.run(100);
+		World world = simulator.getEngine().getWorld();
+		String expected = describe(world);
+
+		// a room per frame while the bots go on playing
+		world.startSnapshot(0);
+		WorldSnapshot snapshot;
+		while ((snapshot = world.advanceSnapshot(1)) == null) {
+			simulator.run(1);
+		}
+		assertNotEquals(expected, describe(world));
+
+		Path path = directory.resolve("world.snap");
+		snapshot.write(path);
+		GameEngine restored = new GameEngine(Game.loadWorld());
+		restored.restoreSnapshot(path);
+		assertEquals(expected, describe(restored.getWorld()));
+	}
+
+	@Test
+	void replacesTheSnapshotBefore() throws IOException {
+		Simulator simulator = new Simulator(Game.loadWorld(), 5, 1);
+		World world = simulator.getEngine().getWorld();
+		Path path = directory.resolve("world.snap");
+		world.startSnapshot(0);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(path);
+
+		simulator.run(50);
+		String expected = describe(world);
+		world.startSnapshot(1);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(path);
+
+		GameEngine restored = new GameEngine(Game.loadWorld());
+		assertEquals(1, restored.restoreSnapshot(path));
+		assertEquals(expected, describe(restored.getWorld()));
+	}
+
+	@Test
+	void rejectsASnapshotOfAnotherWorld() throws IOException {
+		World world = Game.loadWorld();
+		Path path = directory.resolve("world.snap");
+		world.startSnapshot(0);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(path);
+
+		World other = new World(new WorldGenerator(WorldLayout.GRID, 100, 1).generate());
+		assertThrows(IOException.class, () -> new GameEngine(other).restoreSnapshot(path));
+	}
+
+	@Test
+	void rejectsATruncatedSnapshot() throws IOException {
+		Simulator simulator = new Simulator(Game.loadWorld(), 5, 3);
+		simulator.run(50);
+		World world = simulator.getEngine().getWorld();
+		Path path = directory.resolve("world.snap");
+		world.startSnapshot(0);
+		world.advanceSnapshot(Integer.MAX_VALUE).write(path);
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 3));
+
+		assertThrows(IOException.class, () -> new GameEngine(Game.loadWorld()).restoreSnapshot(path));
+	}
+
+	@Test
+	void capturesNothingUnlessStarted() {
+		assertNull(new World().advanceSnapshot(Integer.MAX_VALUE));
+	}
+}